@@ -0,0 +1,181 @@
+/**
+ * This file Copyright (c) 2026 Magnolia International
+ * Ltd.  (http://www.magnolia-cms.com). All rights reserved.
+ *
+ *
+ * This file is dual-licensed under both the Magnolia
+ * Network Agreement and the GNU General Public License.
+ * You may elect to use one or the other of these licenses.
+ *
+ * This file is distributed in the hope that it will be
+ * useful, but AS-IS and WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE, TITLE, or NONINFRINGEMENT.
+ * Redistribution, except as permitted by whichever of the GPL
+ * or MNA you select, is prohibited.
+ *
+ * 1. For the GPL license (GPL), you can redistribute and/or
+ * modify this file under the terms of the GNU General
+ * Public License, Version 3, as published by the Free Software
+ * Foundation.  You should have received a copy of the GNU
+ * General Public License, Version 3 along with this program;
+ * if not, write to the Free Software Foundation, Inc., 51
+ * Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * 2. For the Magnolia Network Agreement (MNA), this file
+ * and the accompanying materials are made available under the
+ * terms of the MNA which accompanies this distribution, and
+ * is available at http://www.magnolia-cms.com/mna.html
+ *
+ * Any modifications to this file must keep this entire header
+ * intact.
+ *
+ */
+package info.magnolia.templating.jsonfn;
+
+import static org.mockito.Mockito.mock;
+
+import info.magnolia.cms.i18n.DefaultI18nContentSupport;
+import info.magnolia.cms.i18n.I18nContentSupport;
+import info.magnolia.context.Context;
+import info.magnolia.context.MgnlContext;
+import info.magnolia.dam.templating.functions.DamTemplatingFunctions;
+import info.magnolia.jcr.util.NodeTypeTemplateUtil;
+import info.magnolia.jcr.util.NodeTypes;
+import info.magnolia.objectfactory.Components;
+import info.magnolia.objectfactory.guice.GuiceUtils;
+import info.magnolia.repository.RepositoryConstants;
+import info.magnolia.repository.RepositoryManager;
+import info.magnolia.test.ComponentsTestUtil;
+import info.magnolia.test.RepositoryTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.NodeTypeManager;
+
+/**
+ * Generates content rendered by {@link JsonBuilderBenchmark} in an in-memory repository. Content is derived from a fixed seed, so results of different versions can be compared.
+ *
+ * <ul>
+ * <li>{@code /wide} is a flat folder of items with localized titles, a reference to a category and several topics matching categories by their {@code topicId}.</li>
+ * <li>{@code /deep} is a binary tree of pages named {@code n0} and {@code n1}.</li>
+ * <li>{@code /lists} is a folder of lists, marked by their {@code type}, each of them holding the same number of entries.</li>
+ * </ul>
+ */
+public class BenchmarkRepository extends RepositoryTestCase {
+
+    public static final String CATEGORY = "category";
+    public static final int TOPICS_PER_ITEM = 3;
+    public static final int ENTRIES_PER_LIST = 10;
+
+    private final Random random = new Random(20160801L);
+    private Session session;
+    private JsonTemplatingFunctions templatingFunctions;
+
+    /**
+     * Starts the repository and generates content of given shape.
+     */
+    public void start(int width, int depth, int categories) throws Exception {
+        setUp();
+        Context context = MgnlContext.getInstance();
+        session = context.getJCRSession(RepositoryConstants.WEBSITE);
+        NodeTypeManager nodeTypeManager = session.getWorkspace().getNodeTypeManager();
+        nodeTypeManager.registerNodeType(NodeTypeTemplateUtil.createSimpleNodeType(nodeTypeManager, CATEGORY,
+                Arrays.asList(NodeType.NT_HIERARCHY_NODE, NodeType.MIX_REFERENCEABLE, NodeTypes.Created.NAME, NodeTypes.LastModified.NAME)), true);
+        Components.getComponent(RepositoryManager.class).createWorkspace("magnolia", CATEGORY);
+        ComponentsTestUtil.setInstance(I18nContentSupport.class, new DefaultI18nContentSupport());
+
+        List<String> categoryIds = createCategories(context.getJCRSession(CATEGORY), categories);
+        createWide(session.getRootNode().addNode("wide", NodeTypes.Folder.NAME), width, categoryIds);
+        createDeep(session.getRootNode().addNode("deep", NodeTypes.Page.NAME), depth);
+        // generated last, so that content of the other nodes stays the same as before
+        createLists(session.getRootNode().addNode("lists", NodeTypes.Folder.NAME), width / ENTRIES_PER_LIST);
+        session.save();
+
+        templatingFunctions = new JsonTemplatingFunctions(GuiceUtils.providerForInstance(context), mock(DamTemplatingFunctions.class));
+    }
+
+    public void stop() throws Exception {
+        tearDown();
+    }
+
+    public Node getNode(String path) throws RepositoryException {
+        return session.getNode(path);
+    }
+
+    public JsonTemplatingFunctions getTemplatingFunctions() {
+        return templatingFunctions;
+    }
+
+    private List<String> createCategories(Session categorySession, int count) throws RepositoryException {
+        List<String> identifiers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Node category = categorySession.getRootNode().addNode("category" + i, CATEGORY);
+            category.setProperty("name", "Category " + i);
+            category.setProperty("topicId", "topic" + i);
+            category.addNode("description", NodeTypes.ContentNode.NAME).setProperty("text", text(20));
+            identifiers.add(category.getIdentifier());
+        }
+        categorySession.save();
+        return identifiers;
+    }
+
+    private void createWide(Node parent, int width, List<String> categoryIds) throws RepositoryException {
+        for (int i = 0; i < width; i++) {
+            Node item = parent.addNode("item" + i, NodeTypes.ContentNode.NAME);
+            item.setProperty("type", "item");
+            item.setProperty("title", text(5));
+            item.setProperty("title_de", text(5));
+            item.setProperty("text", text(50));
+            item.setProperty("position", (long) i);
+            item.setProperty("rating", random.nextDouble());
+            item.setProperty("visible", random.nextBoolean());
+            item.setProperty("category", categoryIds.get(random.nextInt(categoryIds.size())));
+            for (int topic = 0; topic < TOPICS_PER_ITEM; topic++) {
+                item.setProperty("topic" + topic, "topic" + random.nextInt(categoryIds.size()));
+            }
+        }
+    }
+
+    private void createDeep(Node parent, int depth) throws RepositoryException {
+        parent.setProperty("title", text(5));
+        parent.setProperty("text", text(20));
+        if (depth > 1) {
+            createDeep(parent.addNode("n0", NodeTypes.Page.NAME), depth - 1);
+            createDeep(parent.addNode("n1", NodeTypes.Page.NAME), depth - 1);
+        }
+    }
+
+    private void createLists(Node parent, int count) throws RepositoryException {
+        for (int i = 0; i < count; i++) {
+            Node list = parent.addNode("list" + i, NodeTypes.ContentNode.NAME);
+            list.setProperty("type", "list");
+            list.setProperty("title", text(5));
+            for (int entry = 0; entry < ENTRIES_PER_LIST; entry++) {
+                Node child = list.addNode("entry" + entry, NodeTypes.ContentNode.NAME);
+                child.setProperty("title", text(5));
+                child.setProperty("position", (long) entry);
+            }
+        }
+    }
+
+    private String text(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            for (int length = 2 + random.nextInt(8); length > 0; length--) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return text.toString();
+    }
+}
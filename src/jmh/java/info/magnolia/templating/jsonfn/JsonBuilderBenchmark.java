@@ -0,0 +1,133 @@
+/**
+ * This file Copyright (c) 2026 Magnolia International
+ * Ltd.  (http://www.magnolia-cms.com). All rights reserved.
+ *
+ *
+ * This file is dual-licensed under both the Magnolia
+ * Network Agreement and the GNU General Public License.
+ * You may elect to use one or the other of these licenses.
+ *
+ * This file is distributed in the hope that it will be
+ * useful, but AS-IS and WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE, TITLE, or NONINFRINGEMENT.
+ * Redistribution, except as permitted by whichever of the GPL
+ * or MNA you select, is prohibited.
+ *
+ * 1. For the GPL license (GPL), you can redistribute and/or
+ * modify this file under the terms of the GNU General
+ * Public License, Version 3, as published by the Free Software
+ * Foundation.  You should have received a copy of the GNU
+ * General Public License, Version 3 along with this program;
+ * if not, write to the Free Software Foundation, Inc., 51
+ * Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * 2. For the Magnolia Network Agreement (MNA), this file
+ * and the accompanying materials are made available under the
+ * terms of the MNA which accompanies this distribution, and
+ * is available at http://www.magnolia-cms.com/mna.html
+ *
+ * Any modifications to this file must keep this entire header
+ * intact.
+ *
+ */
+package info.magnolia.templating.jsonfn;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link JsonBuilder#print()} over content of different shapes generated by {@link BenchmarkRepository}.
+ *
+ * <pre>
+ * mvn -Pbenchmarks test-compile exec:exec
+ * mvn -Pbenchmarks test-compile exec:exec -Djmh.args="JsonBuilderBenchmark.deepTree -p inline=true -rf json"
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class JsonBuilderBenchmark {
+
+    @Param({"1000"})
+    private int width;
+
+    @Param({"10"})
+    private int depth;
+
+    @Param({"50"})
+    private int categories;
+
+    @Param({"false", "true"})
+    private boolean inline;
+
+    private BenchmarkRepository repository;
+    private JsonTemplatingFunctions jsonfn;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new BenchmarkRepository();
+        repository.start(width, depth, categories);
+        jsonfn = repository.getTemplatingFunctions();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        repository.stop();
+    }
+
+    @Benchmark
+    public String wideFlat() throws Exception {
+        return print(jsonfn.from(repository.getNode("/wide")).add("title", "position", "rating").down(1));
+    }
+
+    @Benchmark
+    public String deepTree() throws Exception {
+        return print(jsonfn.from(repository.getNode("/deep")).addAll().down(depth));
+    }
+
+    @Benchmark
+    public String expandSingle() throws Exception {
+        return print(jsonfn.from(repository.getNode("/wide")).add("title", "name").expand("category", BenchmarkRepository.CATEGORY).down(2));
+    }
+
+    @Benchmark
+    public String expandMulti() throws Exception {
+        return print(jsonfn.from(repository.getNode("/wide")).add("title", "name").expand("topic.", BenchmarkRepository.CATEGORY, "topicId").down(2));
+    }
+
+    @Benchmark
+    public String childrenAsArray() throws Exception {
+        return print(jsonfn.from(repository.getNode("/lists")).add("title", "position").childrenAsArray("type", "list").down(2));
+    }
+
+    @Benchmark
+    public String insertCustom() throws Exception {
+        return print(jsonfn.from(repository.getNode("/deep")).add("title").insertCustom("n1/n0", "{ \"custom\" : true }").down(depth));
+    }
+
+    @Benchmark
+    public String wrapForI18n() throws Exception {
+        return print(jsonfn.from(repository.getNode("/wide")).add("title", "text").wrapForI18n().down(1));
+    }
+
+    private String print(JsonBuilder builder) {
+        return (inline ? builder.inline() : builder).print();
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * This file Copyright (c) 2026 Magnolia International
+ * Ltd.  (http://www.magnolia-cms.com). All rights reserved.
+ *
+ *
+ * This file is dual-licensed under both the Magnolia
+ * Network Agreement and the GNU General Public License.
+ * You may elect to use one or the other of these licenses.
+ *
+ * This file is distributed in the hope that it will be
+ * useful, but AS-IS and WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE, TITLE, or NONINFRINGEMENT.
+ * Redistribution, except as permitted by whichever of the GPL
+ * or MNA you select, is prohibited.
+ *
+ * 1. For the GPL license (GPL), you can redistribute and/or
+ * modify this file under the terms of the GNU General
+ * Public License, Version 3, as published by the Free Software
+ * Foundation.  You should have received a copy of the GNU
+ * General Public License, Version 3 along with this program;
+ * if not, write to the Free Software Foundation, Inc., 51
+ * Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * 2. For the Magnolia Network Agreement (MNA), this file
+ * and the accompanying materials are made available under the
+ * terms of the MNA which accompanies this distribution, and
+ * is available at http://www.magnolia-cms.com/mna.html
+ *
+ * Any modifications to this file must keep this entire header
+ * intact.
+ *
+ */
+package info.magnolia.templating.jsonfn;
+
+import info.magnolia.jcr.util.ContentMap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable, compiled form of {@link JsonBuilder} configuration, as created by {@link JsonBuilder#freeze()}. All regular expressions are compiled only once, and the instance is thread safe, so it can be kept in a static field and rendered concurrently for any node. Source methods such as {@link #from(Node)} return new frozen copies bound to the given node and leave this instance untouched.
+ */
+public final class FrozenJsonBuilder {
+
+    private static final Logger log = LoggerFactory.getLogger(FrozenJsonBuilder.class);
+
+    private final JsonBuilder compiled;
+
+    FrozenJsonBuilder(JsonBuilder compiled) {
+        this.compiled = compiled;
+    }
+
+    /**
+     * Will operate on passed in node.
+     */
+    public FrozenJsonBuilder from(ContentMap content) {
+        return from(content.getJCRNode());
+    }
+
+    /**
+     * Will operate on passed in node.
+     */
+    public FrozenJsonBuilder from(Node node) {
+        return new FrozenJsonBuilder(compiled.bind(node, false, null));
+    }
+
+    /**
+     * Will skip root node of the workspace, but iterate over all children of it instead.
+     */
+    public FrozenJsonBuilder fromChildNodesOf(String workspace) {
+        try {
+            return fromChildNodesOf(compiled.getContextProvider().get().getJCRSession(workspace).getRootNode());
+        } catch (RepositoryException e) {
+            log.debug("Repository could not be accessed due:" + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Will skip current node, but iterate over all children of it instead.
+     */
+    public FrozenJsonBuilder fromChildNodesOf(ContentMap content) {
+        return fromChildNodesOf(content.getJCRNode());
+    }
+
+    /**
+     * Will skip current node, but iterate over all children of it instead.
+     */
+    public FrozenJsonBuilder fromChildNodesOf(Node node) {
+        return new FrozenJsonBuilder(compiled.bind(node, true, null));
+    }
+
+    /**
+     * Will iterate over nodes found by given JCR-SQL2 statement in given workspace.
+     *
+     * @see JsonTemplatingFunctions#fromQuery(String, String, long, long)
+     */
+    public FrozenJsonBuilder fromQuery(String workspace, String statement, long limit, long offset) {
+        return fromQuery(workspace, statement, limit, offset, Collections.emptyMap());
+    }
+
+    /**
+     * Will iterate over nodes found by given JCR-SQL2 statement in given workspace, with bind variables set to provided values.
+     *
+     * @see JsonTemplatingFunctions#fromQuery(String, String, long, long, Map)
+     */
+    public FrozenJsonBuilder fromQuery(String workspace, String statement, long limit, long offset, Map<String, Object> bindValues) {
+        try {
+            return new FrozenJsonBuilder(compiled.bindQuery(compiled.getContextProvider().get().getJCRSession(workspace).getRootNode(), statement, limit, offset, bindValues));
+        } catch (RepositoryException e) {
+            log.debug("Repository could not be accessed due:" + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Will operate on passed in node and append output to provided json.
+     */
+    public FrozenJsonBuilder appendFrom(String json, ContentMap content) {
+        return appendFrom(json, content.getJCRNode());
+    }
+
+    /**
+     * Will operate on passed in node and append output to provided json.
+     */
+    public FrozenJsonBuilder appendFrom(String json, Node node) {
+        return new FrozenJsonBuilder(compiled.bind(node, false, json));
+    }
+
+    /**
+     * Will operate on all passed in nodes (or content maps) and append output of each of them to provided json.
+     *
+     * @see JsonTemplatingFunctions#appendFrom(String, Collection)
+     */
+    public FrozenJsonBuilder appendFrom(String json, Collection<?> contents) {
+        return new FrozenJsonBuilder(compiled.bindAll(JsonTemplatingFunctions.toNodes(contents), json));
+    }
+
+    /**
+     * Will render only given page of child nodes.
+     *
+     * @see JsonBuilder#page(String, int)
+     */
+    public FrozenJsonBuilder page(String after, int limit) {
+        return new FrozenJsonBuilder(compiled.paged(after, 0, limit));
+    }
+
+    /**
+     * Will render only given page of child nodes.
+     *
+     * @see JsonBuilder#page(int, int)
+     */
+    public FrozenJsonBuilder page(int offset, int limit) {
+        return new FrozenJsonBuilder(compiled.paged(null, offset, limit));
+    }
+
+    /**
+     * Produces the json output for node this builder was created from.
+     */
+    public String print() {
+        return print(compiled.getNode());
+    }
+
+    /**
+     * Streams the json output for node this builder was created from into provided writer.
+     */
+    public void printTo(Writer writer) throws IOException {
+        printTo(compiled.getNode(), writer);
+    }
+
+    /**
+     * Streams the json output for node this builder was created from into provided stream using UTF-8 encoding.
+     */
+    public void printTo(OutputStream out) throws IOException {
+        printTo(compiled.getNode(), out);
+    }
+
+    /**
+     * Streams newline delimited json export of node this builder was created from into provided writer.
+     *
+     * @see JsonBuilder#exportTo(Writer)
+     */
+    public void exportTo(Writer writer) throws IOException {
+        if (isBound(compiled.getNode())) {
+            compiled.exportTo(compiled.getNode(), writer);
+        }
+    }
+
+    /**
+     * Streams newline delimited json export of node this builder was created from into provided stream using UTF-8 encoding.
+     *
+     * @see JsonBuilder#exportTo(Writer)
+     */
+    public void exportTo(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        exportTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * Produces the json output for passed in node.
+     */
+    public String print(ContentMap content) {
+        return print(content.getJCRNode());
+    }
+
+    /**
+     * Produces the json output for passed in node.
+     */
+    public String print(Node node) {
+        if (!isBound(node)) {
+            return "{ }";
+        }
+        try {
+            return compiled.print(node);
+        } catch (IOException e) {
+            log.warn("Failed to generate JSON string of {}", compiled.describe(node), e);
+        }
+
+        return "{ }";
+    }
+
+    /**
+     * Streams the json output for passed in node into provided writer.
+     */
+    public void printTo(Node node, Writer writer) throws IOException {
+        if (isBound(node)) {
+            compiled.printTo(node, writer);
+        }
+    }
+
+    /**
+     * Streams the json output for passed in node into provided stream using UTF-8 encoding.
+     */
+    public void printTo(Node node, OutputStream out) throws IOException {
+        if (isBound(node)) {
+            compiled.printTo(node, out);
+        }
+    }
+
+    /**
+     * Named builders are not bound to any node until one of the source methods such as {@link #from(Node)} is called.
+     */
+    private boolean isBound(Node node) {
+        if (node == null) {
+            log.warn("Nothing to render, no node given to jsonfn builder {}. Call one of the source methods such as from(content) first.", compiled.describe(null));
+            return false;
+        }
+        return true;
+    }
+}
@@ -33,39 +33,66 @@
  */
 package info.magnolia.templating.jsonfn;
 
-import static info.magnolia.cms.util.QueryUtil.search;
 import static info.magnolia.context.MgnlContext.getJCRSession;
 import static info.magnolia.jcr.util.PropertyUtil.*;
 import static info.magnolia.templating.jsonfn.Java8Util.*;
 
+import info.magnolia.cms.i18n.I18nContentSupport;
+import info.magnolia.cms.security.User;
+import info.magnolia.context.Context;
+import info.magnolia.context.MgnlContext;
 import info.magnolia.dam.templating.functions.DamTemplatingFunctions;
 import info.magnolia.jcr.util.ContentMap;
 import info.magnolia.jcr.util.NodeTypes;
 import info.magnolia.jcr.util.NodeUtil;
+import info.magnolia.jcr.util.PropertyUtil;
 import info.magnolia.jcr.wrapper.I18nNodeWrapper;
 import info.magnolia.link.LinkUtil;
+import info.magnolia.objectfactory.Components;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.inject.Provider;
 import javax.jcr.Item;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -74,16 +101,32 @@ import javax.jcr.PropertyIterator;
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
-import javax.jcr.nodetype.NodeType;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
 
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.ProxyWriter;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 
 /**
@@ -91,6 +134,56 @@ import com.fasterxml.jackson.databind.ObjectWriter;
  */
 public class JsonBuilder implements Cloneable {
 
+    /**
+     * Root value of the output, streams configured chain of operations into the generator provided by the writer.
+     */
+    private class Output extends JsonSerializable.Base {
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            print(generator, provider);
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+            serialize(generator, provider);
+        }
+    }
+
+    /**
+     * Escapes of json strings with all backslashes doubled, so the output can be embedded in string literal of javascript as is.
+     */
+    private static class BackslashEscapes extends CharacterEscapes {
+
+        private static final BackslashEscapes INSTANCE = new BackslashEscapes();
+
+        private final int[] escapeCodes = standardAsciiEscapesForJSON();
+        private final SerializableString[] sequences = new SerializableString[escapeCodes.length];
+
+        private BackslashEscapes() {
+            for (int c = 0; c < escapeCodes.length; c++) {
+                int standard = escapeCodes[c];
+                if (standard == ESCAPE_NONE) {
+                    continue;
+                }
+                // same escape Jackson writes by default, just with all backslashes doubled
+                String escape = "\\" + (standard == ESCAPE_STANDARD ? String.format("u%04X", c) : String.valueOf((char) standard));
+                sequences[c] = new SerializedString(StringUtils.replace(escape, "\\", "\\\\"));
+                escapeCodes[c] = ESCAPE_CUSTOM;
+            }
+        }
+
+        @Override
+        public int[] getEscapeCodesForAscii() {
+            return escapeCodes;
+        }
+
+        @Override
+        public SerializableString getEscapeSequence(int ch) {
+            return ch < sequences.length ? sequences[ch] : null;
+        }
+    }
+
     /**
      * Simple bean holding info about expanded-to-be property mapping.
      */
@@ -104,24 +197,518 @@ public class JsonBuilder implements Cloneable {
             this.propertyName = targetPropertyName;
         }
 
+        @Override
+        public String toString() {
+            return repository + "/" + propertyName;
+        }
+    }
+
+    /**
+     * Custom inserts indexed by their path suffixes in a trie of reversed paths, so that finding the insert of a path costs its length rather than number of inserts.
+     */
+    private static class SuffixIndex {
+
+        private final Map<Character, SuffixIndex> children = new HashMap<>();
+        private JsonNode insert;
+        private int rank;
+
+        /**
+         * @param inserts
+         *            inserts by path suffix, when more suffixes match a path the one iterated first wins.
+         */
+        private SuffixIndex(Map<String, JsonNode> inserts) {
+            int rank = 0;
+            for (Map.Entry<String, JsonNode> entry : inserts.entrySet()) {
+                SuffixIndex index = this;
+                String suffix = entry.getKey();
+                for (int i = suffix.length() - 1; i >= 0; i--) {
+                    index = index.children.computeIfAbsent(suffix.charAt(i), c -> new SuffixIndex());
+                }
+                index.insert = entry.getValue();
+                index.rank = rank++;
+            }
+        }
+
+        private SuffixIndex() {
+        }
+
+        private boolean isEmpty() {
+            return insert == null && children.isEmpty();
+        }
+
+        private JsonNode get(String path) {
+            SuffixIndex index = this;
+            JsonNode found = insert;
+            int foundRank = rank;
+            for (int i = path.length() - 1; i >= 0; i--) {
+                index = index.children.get(path.charAt(i));
+                if (index == null) {
+                    break;
+                }
+                if (index.insert != null && (found == null || index.rank < foundRank)) {
+                    found = index.insert;
+                    foundRank = index.rank;
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Property (or special property) and its value marking nodes which children are rendered as array.
+     */
+    private static class ArrayCandidate {
+
+        private final Pattern key;
+        private final Pattern value;
+        // special properties (@name, @nodeType, ...) are not stored with the node, there is no property to read for them
+        private final boolean specialOnly;
+        // names of properties to read when the key is literal or simple wildcard, so that not all properties are read
+        private final String[] globs;
+        private final List<EntryableContentMap.SpecialProperty> specialProperties;
+
+        private ArrayCandidate(String key, String value) {
+            this.key = Pattern.compile(key);
+            this.value = Pattern.compile(value);
+            this.specialOnly = key.startsWith("@");
+            List<String> globs = Patterns.toGlobs(Collections.singletonList(this.key));
+            this.globs = globs == null ? null : globs.toArray(new String[1]);
+            this.specialProperties = EntryableContentMap.specialProperties.entrySet().stream()
+                    .filter(entry -> this.key.matcher(entry.getKey()).matches())
+                    .map(Map.Entry::getValue)
+                    .collect(Collectors.toList());
+        }
+
+        private boolean matches(Property property) {
+            if (property == null) {
+                return false;
+            }
+            // multi value properties have no single value to match
+            String valueString = getValueString(property);
+            return valueString != null && key.matcher(getName(property)).matches() && value.matcher(valueString).matches();
+        }
+    }
+
+    /**
+     * Properties to include for sub nodes (or expanded nodes) of given name.
+     */
+    private static class SubNodeProperties {
+
+        private final String name;
+        private final Pattern namePattern;
+        private final List<Pattern> properties;
+        private final List<String> globs;
+
+        private SubNodeProperties(String name, List<Pattern> properties) {
+            this.name = name;
+            this.namePattern = Pattern.compile(name);
+            this.properties = properties;
+            this.globs = Patterns.toGlobs(properties);
+        }
+
+        private boolean appliesTo(String nodeName) {
+            return nodeName != null && (name.equals(nodeName) || namePattern.matcher(nodeName).matches());
+        }
+    }
+
+    /**
+     * Regular expressions of the configuration, compiled once per render (or once for good when {@link #freeze() frozen}) instead of for every node and property.
+     */
+    private static class Patterns {
+
+        // never matches anything
+        private static final Pattern NOTHING = Pattern.compile("(?!)");
+
+        private static final int MAX_MEMOIZED_KEYS = 10000;
+
+        private final List<Pattern> excludes;
+        private final List<Pattern> includes;
+        // same as includes but as JCR name globs, null when some include is a real regular expression
+        private final List<String> includeGlobs;
+        private final Pattern readNodeTypes;
+        private final Pattern allowOnlyNodeTypes;
+        private final Map<Pattern, MultiExpand> expandsMulti = new LinkedHashMap<>();
+        private final List<ArrayCandidate> childrenArrayCandidates = new ArrayList<>();
+        private final List<SubNodeProperties> subNodeSpecificProperties = new ArrayList<>();
+        private final SuffixIndex customInserts;
+        private final Map<Pattern, String> renames;
+        // masks composed into translation of characters up to the highest masked one, so that keys are masked in single pass
+        private final char[] maskTable;
+        // keys of the output by property (or node) name, memoized since the same names come up over and over
+        private final Map<String, String> keys = new ConcurrentHashMap<>();
+
+        /**
+         * @param strict
+         *            when false, broken node type patterns are logged and match no node instead of failing.
+         * @throws PatternSyntaxException
+         *             when any of the patterns is not valid.
+         */
+        private Patterns(JsonBuilder builder, boolean strict) {
+            this.excludes = compileAll(builder.regexExcludes);
+            this.includes = compileAll(builder.butInclude);
+            this.includeGlobs = toGlobs(includes);
+            this.readNodeTypes = compileNodeTypes(builder.readNodeTypes, strict);
+            this.allowOnlyNodeTypes = compileNodeTypes(builder.allowOnlyNodeTypes, strict);
+            builder.expandsMulti.forEach((regex, expand) -> expandsMulti.put(Pattern.compile(regex), expand));
+            builder.childrenArrayCandidates.forEach((key, value) -> childrenArrayCandidates.add(new ArrayCandidate(key, value)));
+            builder.subNodeSpecificProperties.forEach((name, properties) -> subNodeSpecificProperties.add(new SubNodeProperties(name, compileAll(properties))));
+            this.customInserts = new SuffixIndex(builder.customInserts);
+            this.renames = builder.renames;
+            this.maskTable = new char[builder.masks.keySet().stream().mapToInt(c -> c + 1).max().orElse(0)];
+            // int rather than char, which would wrap around before reaching length of table masking '\uFFFF'
+            for (int c = 0; c < maskTable.length; c++) {
+                // masks are applied one after another, so one can replace result of another
+                char replacement = (char) c;
+                for (Map.Entry<Character, Character> mask : builder.masks.entrySet()) {
+                    if (mask.getKey() == replacement) {
+                        replacement = mask.getValue();
+                    }
+                }
+                maskTable[c] = replacement;
+            }
+        }
+
+        /**
+         * Renames and masks given name.
+         */
+        private String toKey(String name) {
+            if (renames.isEmpty() && maskTable.length == 0) {
+                return name;
+            }
+            String key = keys.get(name);
+            if (key == null) {
+                key = mask(rename(name));
+                // names of nodes are unbounded, don't let long living (frozen) builders pile them up
+                if (keys.size() < MAX_MEMOIZED_KEYS) {
+                    keys.put(name, key);
+                }
+            }
+            return key;
+        }
+
+        private String rename(String name) {
+            for (Map.Entry<Pattern, String> rename : renames.entrySet()) {
+                if (rename.getKey().matcher(name).matches()) {
+                    return rename.getValue();
+                }
+            }
+            return name;
+        }
+
+        private String mask(String name) {
+            char[] chars = null;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c < maskTable.length && maskTable[c] != c) {
+                    if (chars == null) {
+                        chars = name.toCharArray();
+                    }
+                    chars[i] = maskTable[c];
+                }
+            }
+            return chars == null ? name : new String(chars);
+        }
+
+        private static List<Pattern> compileAll(Collection<String> regexList) {
+            return regexList.stream()
+                    .map(Pattern::compile)
+                    .collect(Collectors.toList());
+        }
+
+        /**
+         * Translates patterns to JCR name globs matching exactly the same names, so that only those properties have to be read from the node.
+         *
+         * @return globs, or null when any of the patterns can't be expressed as glob.
+         */
+        private static List<String> toGlobs(List<Pattern> patterns) {
+            List<String> globs = new ArrayList<>(patterns.size());
+            for (Pattern pattern : patterns) {
+                String regex = pattern.pattern();
+                // only literal names and ".*" wildcards are supported, anything else is left to the regular expression
+                if (StringUtils.containsAny(regex.replace(".*", ""), "\\^$.|?*+()[]{}") || !regex.trim().equals(regex)) {
+                    return null;
+                }
+                globs.add(regex.replace(".*", "*"));
+            }
+            return globs;
+        }
+
+        private static Pattern compileNodeTypes(String regex, boolean strict) {
+            try {
+                return Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                if (strict) {
+                    throw e;
+                }
+                // leave result empty to alert dev to broken pattern.
+                log.error(e.getMessage(), e);
+                return NOTHING;
+            }
+        }
+    }
+
+    /**
+     * Values of flat property, read once and written out by serializer registered for their type.
+     */
+    private static class PropertyValues {
+
+        private final Value[] values;
+        private final boolean multiple;
+
+        private PropertyValues(Property property) throws RepositoryException {
+            this.multiple = property.isMultiple();
+            this.values = multiple ? property.getValues() : new Value[] { property.getValue() };
+        }
+
+        private void write(JsonGenerator generator, PropertySerializers serializers) throws IOException {
+            if (multiple) {
+                generator.writeStartArray();
+            }
+            for (Value value : values) {
+                try {
+                    serializers.serialize(value, generator);
+                } catch (RepositoryException e) {
+                    log.debug("Failed to read value of property: {}", e.getMessage(), e);
+                    generator.writeNull();
+                }
+            }
+            if (multiple) {
+                generator.writeEndArray();
+            }
+        }
+
+        /**
+         * Values as {@link PropertyUtil#getPropertyValueObject(Node, String)} reads them.
+         */
+        private Object toPlainValue() {
+            if (!multiple) {
+                return getValueObject(values[0]);
+            }
+            return Arrays.stream(values).map(PropertyUtil::getValueObject).collect(Collectors.toList());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PropertyValues && multiple == ((PropertyValues) o).multiple && Arrays.equals(values, ((PropertyValues) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
+    /**
+     * JCR-SQL2 query providing the nodes to render instead of child nodes.
+     */
+    private static class QuerySource {
+
+        private final String statement;
+        private final long limit;
+        private final long offset;
+        private final Map<String, Object> bindValues;
+
+        private QuerySource(String statement, long limit, long offset, Map<String, Object> bindValues) {
+            this.statement = statement;
+            this.limit = limit;
+            this.offset = offset;
+            this.bindValues = new TreeMap<>(bindValues);
+        }
+
+        private NodeIterator execute(Session session) throws RepositoryException {
+            Query query = session.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2);
+            if (limit > 0) {
+                query.setLimit(limit);
+            }
+            if (offset > 0) {
+                query.setOffset(offset);
+            }
+            for (Map.Entry<String, Object> bindValue : bindValues.entrySet()) {
+                query.bindValue(bindValue.getKey(), createValue(bindValue.getValue(), session.getValueFactory()));
+            }
+            return query.execute().getNodes();
+        }
+
+        @Override
+        public String toString() {
+            return statement + "/" + limit + "/" + offset + "/" + bindValues;
+        }
+    }
+
+    /**
+     * Expanded nodes resolved within a single render, so that nodes referenced many times are looked up and rendered only once.
+     */
+    private static class Expansions {
+
+        private final Map<String, Session> sessions;
+        private final RenderMetrics.Cost cost;
+        private final Map<String, Node> nodes = new HashMap<>();
+        private final Set<String> expanded = new HashSet<>();
+        private final Map<String, TokenBuffer> rendered = new HashMap<>();
+        private final Map<String, List<Node>> searches = new HashMap<>();
+
+        private Expansions(RenderMetrics.Cost cost) {
+            this(new HashMap<>(), cost);
+        }
+
+        /**
+         * @param sessions
+         *            sessions to read expanded nodes with, other workspaces are read with sessions of current context.
+         * @param cost
+         *            costs of the render to record queries in.
+         */
+        private Expansions(Map<String, Session> sessions, RenderMetrics.Cost cost) {
+            this.sessions = sessions;
+            this.cost = cost;
+        }
+
+        private Session getSession(String workspace) throws RepositoryException {
+            Session session = sessions.get(workspace);
+            if (session == null) {
+                session = getJCRSession(workspace);
+                sessions.put(workspace, session);
+            }
+            return session;
+        }
+
+        private NodeIterator query(String workspace, String statement) throws RepositoryException {
+            cost.recordQuery();
+            return getSession(workspace).getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2).execute().getNodes();
+        }
+
+        private Node getNode(String workspace, String pathOrIdentifier) throws RepositoryException {
+            String key = workspace + ":" + pathOrIdentifier;
+            Node node = nodes.get(key);
+            if (node == null) {
+                Session session = getSession(workspace);
+                node = pathOrIdentifier.startsWith("/") ? session.getNode(pathOrIdentifier) : session.getNodeByIdentifier(pathOrIdentifier);
+                nodes.put(key, node);
+            }
+            return node;
+        }
+
+        /**
+         * Resolves given paths or identifiers in bulk. References that can't be resolved here are left to be looked up, and reported, when rendered.
+         */
+        private void prefetch(String workspace, Set<String> references) {
+            List<String> identifiers = new ArrayList<>();
+            for (String reference : references) {
+                if (nodes.containsKey(workspace + ":" + reference)) {
+                    continue;
+                }
+                if (reference.startsWith("/")) {
+                    try {
+                        getNode(workspace, reference);
+                    } catch (RepositoryException e) {
+                        // ignore, will fail again when rendered
+                    }
+                } else {
+                    identifiers.add(reference);
+                }
+            }
+            for (int i = 0; i < identifiers.size(); i += PREFETCH_BATCH_SIZE) {
+                String statement = identifiers.subList(i, Math.min(i + PREFETCH_BATCH_SIZE, identifiers.size())).stream()
+                        .map(identifier -> "[jcr:uuid] = '" + identifier.replaceAll("'", "''") + "'")
+                        .collect(Collectors.joining(" or ", "select * from [mix:referenceable] where ", ""));
+                try {
+                    NodeIterator results = query(workspace, statement);
+                    while (results.hasNext()) {
+                        Node node = results.nextNode();
+                        nodes.put(workspace + ":" + node.getIdentifier(), node);
+                    }
+                } catch (RepositoryException e) {
+                    log.debug("Failed to prefetch nodes from {} with {}", workspace, e.getMessage(), e);
+                }
+            }
+        }
+
+        /**
+         * Runs given full-text query once per render. Queries of different values are not combined into one, since results of such query can't be told apart by value without reimplementing the analyzer of the repository, nor put back in the order (by relevance) of the query of each value.
+         */
+        private List<Node> search(String workspace, String statement) throws RepositoryException {
+            String key = workspace + ":" + statement;
+            List<Node> results = searches.get(key);
+            if (results == null) {
+                results = asNodeStream(query(workspace, statement)).collect(Collectors.toList());
+                searches.put(key, results);
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Writes out map of single node.
+     */
+    private interface MapWriter {
+        void write(EntryableContentMap map) throws IOException;
+    }
+
+    /**
+     * Writes out single node of a list of siblings.
+     */
+    private interface NodeWriter {
+        void write(Node node) throws IOException, RepositoryException;
+    }
+
+    /**
+     * Writes out the output and returns its size.
+     */
+    private interface MeasuredRender {
+        long run() throws IOException;
+    }
+
+    /**
+     * Counts characters written through.
+     */
+    private static class CountingWriter extends ProxyWriter {
+
+        private long count;
+
+        private CountingWriter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        protected void afterWrite(int n) {
+            count += n;
+        }
     }
 
     private static final Logger log = LoggerFactory.getLogger(JsonBuilder.class);
-    private static final Pattern ESCAPES = Pattern.compile("\\\\");
 
-    private ObjectMapper mapper = new ObjectMapper();
+    private static final int PREFETCH_BATCH_SIZE = 100;
+
+    private static final int PREFETCH_SIBLINGS_BATCH_SIZE = 100;
+
+    private static final int MIN_PARALLEL_BATCH_SIZE = 50;
+
+    private static final String DAM_WORKSPACE = "dam";
+
+    private static final int EXPORT_FLUSH_INTERVAL = 100;
+
+    private static final String DEFAULT_READ_NODE_TYPES = "^(?!rep:).*$";
+
+    // used by builders created without JsonTemplatingFunctions
+    private static final PropertySerializers DEFAULT_PROPERTY_SERIALIZERS = new PropertySerializers();
+    private static final RenderMetrics DEFAULT_RENDER_METRICS = new RenderMetrics();
+
+    private final ObjectMapper mapper;
+    private final ObjectWriter prettyWriter;
+    private final ObjectWriter compactWriter;
     private Node node;
     private String referencingPropertyName;
     private List<String> regexExcludes = new LinkedList<>();
     private List<String> butInclude = new LinkedList<>();
     private Map<String, String> expands = new HashMap<>();
     private boolean childrenOnly;
+    private QuerySource query;
+    private List<Node> appendedNodes = Collections.emptyList();
     private int totalDepth = 0;
     private LinkedList<String> renditions = new LinkedList<>();
     private String preexisingJson;
     private boolean inline;
     private boolean wrapForI18n;
-    private String readNodeTypes = "^(?!rep:).*$";
+    private String readNodeTypes = DEFAULT_READ_NODE_TYPES;
     private String allowOnlyNodeTypes = ".*";
 
     private boolean allowDeleted = false;
@@ -131,13 +718,51 @@ public class JsonBuilder implements Cloneable {
     private boolean escapeBackslash;
     private final Map<String, String> childrenArrayCandidates = new LinkedHashMap<>();
     private Map<String, MultiExpand> expandsMulti = new LinkedHashMap<>();
-    private final Map<String, JsonNode> customInserts = new HashMap<>();
+    private Map<String, JsonNode> customInserts = new HashMap<>();
     private Map<Pattern, String> renames = new LinkedHashMap<>();
+    private Patterns patterns;
+    private RenderCache renderCache;
+    private PropertySerializers propertySerializers = DEFAULT_PROPERTY_SERIALIZERS;
+    private RenderMetrics renderMetrics = DEFAULT_RENDER_METRICS;
+    private Provider<Context> contextProvider = MgnlContext::getInstance;
+    private Supplier<ThreadPoolExecutor> parallelExecutor = () -> null;
+    // shared by all copies of this builder created during the render
+    private RenderMetrics.Cost cost;
+    private Expansions expansions;
+    private boolean cached;
+    private boolean prefetch;
+    private boolean parallel;
+    private String pageAfter;
+    private int pageOffset;
+    private int pageLimit;
 
     private final DamTemplatingFunctions damTemplatingFunctions;
 
+    /**
+     * @deprecated since 1.0.10, use {@link #JsonBuilder(DamTemplatingFunctions, ObjectMapper, ObjectWriter, ObjectWriter)} instead.
+     */
+    @Deprecated
     protected JsonBuilder(final DamTemplatingFunctions damTemplatingFunctions) {
+        this(damTemplatingFunctions, JsonTemplatingFunctions.createObjectMapper());
+    }
+
+    private JsonBuilder(final DamTemplatingFunctions damTemplatingFunctions, final ObjectMapper mapper) {
+        this(damTemplatingFunctions, mapper, mapper.writer().withDefaultPrettyPrinter(), mapper.writer());
+    }
+
+    /**
+     * @param mapper
+     *            shared mapper used to parse custom inserts.
+     * @param prettyWriter
+     *            shared writer used to produce indented output.
+     * @param compactWriter
+     *            shared writer used to produce {@link #inline()} output.
+     */
+    protected JsonBuilder(final DamTemplatingFunctions damTemplatingFunctions, final ObjectMapper mapper, final ObjectWriter prettyWriter, final ObjectWriter compactWriter) {
         this.damTemplatingFunctions = damTemplatingFunctions;
+        this.mapper = mapper;
+        this.prettyWriter = prettyWriter;
+        this.compactWriter = compactWriter;
     }
 
     protected DamTemplatingFunctions getDamTemplatingFunctions() {
@@ -156,6 +781,55 @@ public class JsonBuilder implements Cloneable {
         this.childrenOnly = childrenOnly;
     }
 
+    /**
+     * Renders nodes found by given JCR-SQL2 statement instead of child nodes, requires {@link #setChildrenOnly(boolean) children only} mode and root node of queried workspace.
+     *
+     * @param limit
+     *            max number of nodes to render, 0 for all of them.
+     * @param offset
+     *            number of nodes to skip.
+     * @param bindValues
+     *            values of bind variables used in the statement.
+     */
+    void setQuery(String statement, long limit, long offset, Map<String, Object> bindValues) {
+        this.query = new QuerySource(statement, limit, offset, bindValues);
+    }
+
+    /**
+     * Renders given nodes after the rendered one, all of them into single array.
+     */
+    void setAppendedNodes(List<Node> appendedNodes) {
+        this.appendedNodes = appendedNodes;
+    }
+
+    void setRenderCache(RenderCache renderCache) {
+        this.renderCache = renderCache;
+    }
+
+    void setPropertySerializers(PropertySerializers propertySerializers) {
+        this.propertySerializers = propertySerializers;
+    }
+
+    void setRenderMetrics(RenderMetrics renderMetrics) {
+        this.renderMetrics = renderMetrics;
+    }
+
+    void setContextProvider(Provider<Context> contextProvider) {
+        this.contextProvider = contextProvider;
+    }
+
+    Provider<Context> getContextProvider() {
+        return contextProvider;
+    }
+
+    /**
+     * @param parallelExecutor
+     *            executor of the module to render batches of {@link #parallel()} with, gives null while the module doesn't run.
+     */
+    void setParallelExecutor(Supplier<ThreadPoolExecutor> parallelExecutor) {
+        this.parallelExecutor = parallelExecutor;
+    }
+
     /**
      * Will expand id into sub array.
      *
@@ -172,6 +846,7 @@ public class JsonBuilder implements Cloneable {
 
     /**
      * Will expand id(s) provided in propertyNameRegex into sub array of nodes from targetRepository with property matching the targetPropertyName and one of the values in propertyNameRegex.
+     * Unless targetPropertyName is jcr:uuid, nodes are found by full-text query of each value. Each distinct value is queried once per render, but queries of different values are not combined, since the repository orders results of a query by relevance to all of its values and the output keeps the order of each value's own query.
      *
      * @param propertyNameRegex
      *            source property name pattern to expand.
@@ -249,146 +924,1049 @@ public class JsonBuilder implements Cloneable {
     }
 
     /**
-     * Includes only specified properties. Use together with excludeAll().
+     * Will reuse output of previous {@link #print()} with same configuration until rendered subtree or any of the expanded workspaces changes. Output is cached per user, so access rights are respected.
+     */
+    public JsonBuilder cached() {
+        cached = true;
+        return this;
+    }
+
+    /**
+     * Will resolve nodes referenced by expanded properties of sibling nodes in bulk, before the siblings are rendered, rather than one by one as they are met. Siblings are read in batches of 100 for that. Only references by path or identifier are resolved in bulk, see {@link #expand(String, String, String)} for expansions by other properties.
+     */
+    public JsonBuilder prefetch() {
+        prefetch = true;
+        return this;
+    }
+
+    /**
+     * Will render only given number of child nodes of {@link JsonTemplatingFunctions#fromChildNodesOf(Node)} following the ones of previous page. Output is wrapped in an object with the page in <code>items</code> and the token for the next page in <code>next</code> (null for the last page).
+     *
+     * @param after
+     *            token of previous page as found in its output, null or empty for the first page.
+     * @param limit
+     *            maximum number of child nodes on the page.
+     */
+    public JsonBuilder page(String after, int limit) {
+        pageAfter = after;
+        pageOffset = 0;
+        pageLimit = limit;
+        return this;
+    }
+
+    /**
+     * Will render only given number of child nodes of {@link JsonTemplatingFunctions#fromChildNodesOf(Node)} starting at given offset. Output has same format as that of {@link #page(String, int)}.
+     */
+    public JsonBuilder page(int offset, int limit) {
+        pageAfter = null;
+        pageOffset = offset;
+        pageLimit = limit;
+        return this;
+    }
+
+    /**
+     * Will render child nodes of {@link JsonTemplatingFunctions#fromChildNodesOf(Node)} in batches on the threads of the jsonfn module. Each batch is rendered with its own sessions of the same user and the output is identical to the sequential one. The sessions are opened by impersonating the current user, which only privileged sessions (such as those of system or superuser) are permitted to do, nodes are rendered sequentially otherwise, as they are while the module doesn't run.
+     */
+    public JsonBuilder parallel() {
+        parallel = true;
+        return this;
+    }
+
+    /**
+     * Includes only specified properties. Use together with excludeAll().
+     */
+    public JsonBuilder add(String... string) {
+        Arrays.stream(string)
+                .filter(it -> it.contains("['") && it.contains("']"))
+                .map(it -> it.split("\\['"))
+                .forEach(subpropertyArray -> addToSubPropertyMap(subpropertyArray[0], StringUtils.substringBefore(subpropertyArray[1], "']")));
+
+        List<String> list = new ArrayList<>();
+        Arrays.stream(string)
+                .filter(it -> !it.contains("['")).forEach(list::add);
+        this.butInclude.addAll(list);
+        return this;
+    }
+
+    private void addToSubPropertyMap(String parentNodeName, String propertyName) {
+        if (!subNodeSpecificProperties.containsKey(parentNodeName)) {
+            subNodeSpecificProperties.put(parentNodeName, new ArrayList<>());
+        }
+        subNodeSpecificProperties.get(parentNodeName).add(propertyName);
+    }
+
+    /**
+     * Includes only specified properties. Use together with excludeAll().
+     */
+    public JsonBuilder addAll() {
+        this.butInclude.add(".*");
+        return this;
+    }
+
+    public JsonBuilder childrenAsArray(String propertyName, String valueRegex) {
+        childrenArrayCandidates.put(propertyName, valueRegex);
+        return this;
+    }
+
+    /**
+     * Insert custom JSON anywhere in the tree, replacing pre-existing content.
+     * Invalid JSON is ignored, i.e. the original content remains in that case.
+     *
+     * @param pathSuffix
+     * @param json
+     */
+    public JsonBuilder insertCustom(String pathSuffix, String json) {
+        try {
+            JsonNode jsonObject = mapper.reader().readTree(json);
+            customInserts.put(pathSuffix, jsonObject);
+        } catch (IOException e) {
+            log.debug("Failed to parse custom JSON", e);
+        }
+        return this;
+    }
+
+    public JsonBuilder renameKey(String replaceRegex, String replacement) {
+        this.renames.put(Pattern.compile(replaceRegex), replacement);
+        return this;
+    }
+
+    /**
+     * Executes configured chain of operations and produces the json output.
+     */
+    public String print() {
+        try {
+            return compile(false).render();
+        } catch (IOException | PatternSyntaxException e) {
+            log.warn("Failed to generate JSON string of {}", describe(totalDepth), e);
+        }
+
+        return "{ }";
+    }
+
+    /**
+     * Executes configured chain of operations and streams the json output into provided writer. Nodes are written out one by one as the tree is traversed, so memory used is bound by depth of the tree rather than by its size.
+     */
+    public void printTo(Writer writer) throws IOException {
+        compile(false).write(writer);
+    }
+
+    /**
+     * Executes configured chain of operations and streams the json output into provided stream using UTF-8 encoding.
+     *
+     * @see #printTo(Writer)
+     */
+    public void printTo(OutputStream out) throws IOException {
+        compile(false).write(out);
+    }
+
+    /**
+     * Executes configured chain of operations and streams the output into provided writer as newline delimited json. Each child node of {@link JsonTemplatingFunctions#fromChildNodesOf(Node)} (or each node matching {@link #allowOnlyNodeTypes(String)}) is written as a compact json document on its own line, the node itself otherwise. Documents (or batches of documents prefetched together) are rendered independently of each other, so memory used stays the same regardless of size of the export. Nodes given to {@link JsonTemplatingFunctions#appendFrom(String, Collection)} are exported after the first one, paging, parallel rendering and the json to append to don't apply to the export.
+     */
+    public void exportTo(Writer writer) throws IOException {
+        compile(false).export(writer);
+    }
+
+    /**
+     * Executes configured chain of operations and streams the output into provided stream as newline delimited json using UTF-8 encoding.
+     *
+     * @see #exportTo(Writer)
+     */
+    public void exportTo(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        exportTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * Compiles configured chain of operations into immutable and thread safe form that can be kept around and rendered for any number of nodes.
+     *
+     * @throws PatternSyntaxException
+     *             when any of the configured regular expressions is not valid.
+     */
+    public FrozenJsonBuilder freeze() {
+        return new FrozenJsonBuilder(compile(true));
+    }
+
+    /**
+     * Creates private copy of this builder with all patterns compiled. Further changes to this builder are not reflected in the copy.
+     */
+    private JsonBuilder compile(boolean strict) {
+        JsonBuilder compiled = clone();
+        compiled.referencingPropertyName = this.referencingPropertyName;
+        compiled.renditions = new LinkedList<>(this.renditions);
+        compiled.customInserts = new HashMap<>(this.customInserts);
+        compiled.patterns = new Patterns(compiled, strict);
+        return compiled;
+    }
+
+    /**
+     * This builder when it is being rendered, otherwise its compiled copy able to resolve maps of nodes on its own.
+     */
+    private JsonBuilder detached() {
+        if (patterns != null && expansions != null) {
+            return this;
+        }
+        JsonBuilder detached = patterns == null ? compile(false) : clone();
+        // costs of maps resolved outside of renders are not counted
+        detached.cost = renderMetrics.start(getEntryPoint());
+        detached.expansions = new Expansions(detached.cost);
+        return detached;
+    }
+
+    /**
+     * Creates copy of compiled builder rendering given source.
+     */
+    JsonBuilder bind(Node node, boolean childrenOnly, String json) {
+        JsonBuilder bound = cloneWith(node);
+        bound.childrenOnly = childrenOnly;
+        bound.preexisingJson = json;
+        bound.query = null;
+        bound.appendedNodes = Collections.emptyList();
+        return bound;
+    }
+
+    /**
+     * Creates copy of compiled builder rendering all given nodes.
+     *
+     * @see #setAppendedNodes(List)
+     */
+    JsonBuilder bindAll(List<Node> nodes, String json) {
+        JsonBuilder bound = bind(nodes.get(0), false, json);
+        bound.appendedNodes = nodes.subList(1, nodes.size());
+        return bound;
+    }
+
+    /**
+     * Creates copy of compiled builder rendering nodes found by given query.
+     *
+     * @see #setQuery(String, long, long, Map)
+     */
+    JsonBuilder bindQuery(Node root, String statement, long limit, long offset, Map<String, Object> bindValues) {
+        JsonBuilder bound = bind(root, true, null);
+        bound.setQuery(statement, limit, offset, bindValues);
+        return bound;
+    }
+
+    /**
+     * Creates copy of compiled builder rendering given page.
+     */
+    JsonBuilder paged(String after, int offset, int limit) {
+        JsonBuilder paged = cloneWith(node);
+        paged.pageAfter = after;
+        paged.pageOffset = offset;
+        paged.pageLimit = limit;
+        return paged;
+    }
+
+    Node getNode() {
+        return node;
+    }
+
+    /**
+     * Describes compiled builder rendering given node as the chain of calls configuring it, for logs.
+     */
+    String describe(Node node) {
+        return cloneWith(node).describe(totalDepth);
+    }
+
+    /**
+     * Renders compiled builder for given node.
+     */
+    String print(Node node) throws IOException {
+        return cloneWith(node).render();
+    }
+
+    /**
+     * Exports compiled builder for given node.
+     */
+    void exportTo(Node node, Writer writer) throws IOException {
+        cloneWith(node).export(writer);
+    }
+
+    /**
+     * Renders compiled builder for given node.
+     */
+    void printTo(Node node, Writer writer) throws IOException {
+        cloneWith(node).write(writer);
+    }
+
+    /**
+     * Renders compiled builder for given node.
+     */
+    void printTo(Node node, OutputStream out) throws IOException {
+        cloneWith(node).write(out);
+    }
+
+    private String render() throws IOException {
+        Supplier<String> builderChain = startMeasuring();
+        String output = null;
+        try {
+            output = renderCached();
+            return output;
+        } finally {
+            renderMetrics.finish(cost, output == null ? -1 : output.length(), builderChain);
+        }
+    }
+
+    private String renderCached() throws IOException {
+        // changes of appended nodes are not observed by the cache
+        if (!cached || renderCache == null || !appendedNodes.isEmpty()) {
+            return renderUncached();
+        }
+        try {
+            Session session = node.getSession();
+            String workspace = session.getWorkspace().getName();
+            String key = workspace + ":" + node.getIdentifier() + ":" + session.getUserID() + ":" + fingerprint();
+            return renderCache.get(key, workspace, node.getPath(), getExpandedWorkspaces(), this::renderUncached);
+        } catch (RepositoryException e) {
+            throw new IOException("Failed to read node from repository", e);
+        }
+    }
+
+    private Set<String> getExpandedWorkspaces() {
+        Set<String> workspaces = new TreeSet<>(expands.values());
+        expandsMulti.values().forEach(multi -> workspaces.add(multi.repository));
+        return workspaces;
+    }
+
+    private String renderUncached() throws IOException {
+        StringWriter writer = new StringWriter();
+        writeOutput(writer);
+        return writer.toString();
+    }
+
+    /**
+     * Starts measuring costs of render of this builder.
+     *
+     * @return description of the builder as configured before the render, resolved only when the render is logged as slow.
+     */
+    private Supplier<String> startMeasuring() {
+        cost = renderMetrics.start(getEntryPoint());
+        // rendering adds depth of the rendered node to the total
+        int down = totalDepth;
+        return () -> describe(down);
+    }
+
+    /**
+     * Runs given render and records its costs in counters of the entry point this builder was created by.
+     */
+    private void measure(MeasuredRender render) throws IOException {
+        Supplier<String> builderChain = startMeasuring();
+        long outputSize = -1;
+        try {
+            outputSize = render.run();
+        } finally {
+            renderMetrics.finish(cost, outputSize, builderChain);
+        }
+    }
+
+    /**
+     * Describes this builder as the chain of calls configuring it, for logs.
+     */
+    private String describe(int down) {
+        StringBuilder chain = new StringBuilder(getEntryPoint().getMethodName()).append('(');
+        try {
+            chain.append(node == null ? null : node.getSession().getWorkspace().getName() + ":" + node.getPath());
+        } catch (RepositoryException e) {
+            chain.append(node);
+        }
+        if (query != null) {
+            chain.append(", ").append(query);
+        }
+        chain.append(')');
+        appendCall(chain, !butInclude.isEmpty(), "add", butInclude.toArray());
+        subNodeSpecificProperties.forEach((parent, properties) -> properties.forEach(property -> appendCall(chain, true, "add", parent + "['" + property + "']")));
+        appendCall(chain, !regexExcludes.isEmpty(), "exclude", regexExcludes.toArray());
+        expands.forEach((property, workspace) -> appendCall(chain, true, "expand", property, workspace));
+        expandsMulti.forEach((regex, multi) -> appendCall(chain, true, "expand", regex, multi.repository, multi.propertyName));
+        childrenArrayCandidates.forEach((property, valueRegex) -> appendCall(chain, true, "childrenAsArray", property, valueRegex));
+        customInserts.forEach((pathSuffix, json) -> appendCall(chain, true, "insertCustom", pathSuffix, "..."));
+        renames.forEach((regex, replacement) -> appendCall(chain, true, "renameKey", regex.pattern(), replacement));
+        masks.forEach((what, replacement) -> appendCall(chain, true, "maskChar", what, replacement));
+        appendCall(chain, !renditions.isEmpty(), "binaryLinkRendition", renditions.toArray());
+        appendCall(chain, down != 0, "down", down);
+        appendCall(chain, !DEFAULT_READ_NODE_TYPES.equals(readNodeTypes), "readNodeTypes", readNodeTypes);
+        appendCall(chain, !".*".equals(allowOnlyNodeTypes), "allowOnlyNodeTypes", allowOnlyNodeTypes);
+        appendCall(chain, pageLimit > 0, "page", pageAfter == null ? pageOffset : pageAfter, pageLimit);
+        appendCall(chain, wrapForI18n, "wrapForI18n");
+        appendCall(chain, allowDeleted, "allowDeleted");
+        appendCall(chain, escapeBackslash, "escapeBackslash");
+        appendCall(chain, inline, "inline");
+        appendCall(chain, cached, "cached");
+        appendCall(chain, prefetch, "prefetch");
+        appendCall(chain, parallel, "parallel");
+        return chain.toString();
+    }
+
+    private static void appendCall(StringBuilder chain, boolean configured, String method, Object... arguments) {
+        if (configured) {
+            chain.append('.').append(method).append(Arrays.stream(arguments)
+                    .map(argument -> argument instanceof String ? "\"" + argument + "\"" : argument instanceof Character ? "'" + argument + "'" : String.valueOf(argument))
+                    .collect(Collectors.joining(", ", "(", ")")));
+        }
+    }
+
+    private RenderMetrics.EntryPoint getEntryPoint() {
+        if (query != null) {
+            return RenderMetrics.EntryPoint.FROM_QUERY;
+        } else if (childrenOnly) {
+            return RenderMetrics.EntryPoint.FROM_CHILD_NODES_OF;
+        } else if (preexisingJson != null || !appendedNodes.isEmpty()) {
+            return RenderMetrics.EntryPoint.APPEND_FROM;
+        }
+        return RenderMetrics.EntryPoint.FROM;
+    }
+
+    /**
+     * Canonical form of configuration affecting the output. Json to append to can be of any size, so only its digest goes to the fingerprint.
+     */
+    private String fingerprint() {
+        return Arrays.asList(childrenOnly, query, pageAfter, pageOffset, pageLimit, totalDepth, digest(preexisingJson), inline, escapeBackslash, allowDeleted, readNodeTypes, allowOnlyNodeTypes,
+                butInclude, regexExcludes, new TreeMap<>(expands), expandsMulti, renditions, masks, renames, subNodeSpecificProperties,
+                childrenArrayCandidates, new TreeMap<>(customInserts),
+                wrapForI18n ? Components.getComponent(I18nContentSupport.class).getLocale() : null).toString();
+    }
+
+    private static String digest(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return String.format("%064x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void write(Writer writer) throws IOException {
+        CountingWriter counting = new CountingWriter(writer);
+        measure(() -> {
+            writeOutput(counting);
+            return counting.count;
+        });
+    }
+
+    private void write(OutputStream out) throws IOException {
+        CountingOutputStream counting = new CountingOutputStream(out);
+        measure(() -> {
+            writeOutput(counting);
+            return counting.getByteCount();
+        });
+    }
+
+    private void export(Writer writer) throws IOException {
+        CountingWriter counting = new CountingWriter(writer);
+        measure(() -> {
+            writeExport(counting);
+            return counting.count;
+        });
+    }
+
+    private void writeOutput(Writer writer) throws IOException {
+        getWriter().writeValue(writer, new Output());
+    }
+
+    private void writeOutput(OutputStream out) throws IOException {
+        if (escapeBackslash) {
+            // byte based generator of Jackson 2.10 drops custom escapes of control characters, use the character based one
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            writeOutput(writer);
+            writer.flush();
+            return;
+        }
+        getWriter().writeValue(out, new Output());
+    }
+
+    private void writeExport(Writer writer) throws IOException {
+        if (wrapForI18n) {
+            node = new I18nNodeWrapper(node);
+        }
+        SerializerProvider provider = mapper.getSerializerProviderInstance();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(writer)) {
+            // documents are separated by new lines written after each of them
+            generator.setRootValueSeparator(null);
+            if (escapeBackslash) {
+                generator.setCharacterEscapes(BackslashEscapes.INSTANCE);
+            }
+            AtomicLong documents = new AtomicLong();
+            totalDepth += node.getDepth();
+            expansions = new Expansions(cost);
+            MapWriter document = map -> {
+                // written by the builder the map was resolved by, appended nodes have their own expansions
+                map.config.writeValue(generator, provider, map);
+                generator.writeRaw('\n');
+                if (documents.incrementAndGet() % EXPORT_FLUSH_INTERVAL == 0) {
+                    generator.flush();
+                }
+            };
+            // nothing is shared between batches of documents, so nothing piles up
+            if (childrenOnly) {
+                writeSiblings(getSourceNodeIterator(), true, child -> document.write(new EntryableContentMap(this, child, null, getTotalDepth(child))));
+            } else if (!allowOnlyNodeTypes.equals(".*")) {
+                writeAllowedChildNodesOf(node, true, document);
+                for (JsonBuilder appended : getAppendedBuilders()) {
+                    appended.writeAllowedChildNodesOf(appended.node, true, document);
+                }
+            } else {
+                writeRoot(generator, provider);
+                generator.writeRaw('\n');
+                for (JsonBuilder appended : getAppendedBuilders()) {
+                    appended.expansions = new Expansions(cost);
+                    appended.writeRoot(generator, provider);
+                    generator.writeRaw('\n');
+                }
+            }
+        } catch (RepositoryException e) {
+            throw new IOException("Failed to read node from repository", e);
+        }
+    }
+
+    private ObjectWriter getWriter() {
+        return inline ? compactWriter : prettyWriter;
+    }
+
+    private void print(JsonGenerator generator, SerializerProvider provider) throws IOException {
+        if (escapeBackslash) {
+            // strings are escaped as they are written, no need to go over the output again
+            generator.setCharacterEscapes(BackslashEscapes.INSTANCE);
+        }
+        if (wrapForI18n) {
+            node = new I18nNodeWrapper(node);
+        }
+        // shared by all copies of this builder created during the render
+        expansions = new Expansions(cost);
+        if (pageLimit > 0 && !childrenOnly) {
+            log.warn("Ignoring page of {}, only child nodes of fromChildNodesOf() and results of fromQuery() are paged.", node);
+        }
+        try {
+            // total depth is that of starting node + set total by user
+            totalDepth += node.getDepth();
+            boolean append = writePreexistingJson(generator);
+            if (childrenOnly) {
+                // child nodes are streamed unless they are needed all at once
+                List<Node> nodes = null;
+                String next = null;
+                long sourceStart = System.nanoTime();
+                if (pageLimit > 0) {
+                    nodes = new ArrayList<>();
+                    next = readPage(nodes);
+                } else if (parallel) {
+                    nodes = new ArrayList<>();
+                    getSourceNodeIterator().forEachRemaining(nodes::add);
+                }
+                cost.recordSourceTime(System.nanoTime() - sourceStart);
+                if (pageLimit > 0) {
+                    generator.writeStartObject();
+                    generator.writeFieldName("items");
+                }
+                generator.writeStartArray();
+                NodeWriter item = child -> writeValue(generator, provider, new EntryableContentMap(this, child, null, getTotalDepth(child)));
+                if (nodes == null) {
+                    writeSiblings(getSourceNodeIterator(), false, item);
+                } else if (!parallel || !writeInParallel(generator, nodes)) {
+                    writeSiblings(nodes.iterator(), false, item);
+                }
+                generator.writeEndArray();
+                if (pageLimit > 0) {
+                    generator.writeStringField("next", next);
+                    generator.writeEndObject();
+                }
+            } else if (!allowOnlyNodeTypes.equals(".*")) {
+                generator.writeStartArray();
+                MapWriter item = map -> writeValue(generator, provider, map);
+                writeAllowedChildNodesOf(this.node, false, item);
+                for (JsonBuilder appended : getAppendedBuilders()) {
+                    appended.writeAllowedChildNodesOf(appended.node, false, item);
+                }
+                generator.writeEndArray();
+
+            } else {
+                if (!append && !appendedNodes.isEmpty()) {
+                    generator.writeRaw('[');
+                    append = true;
+                }
+                writeRoot(generator, provider);
+                // items are separated by raw commas, not by spaces separating root values of compact output
+                generator.setRootValueSeparator(null);
+                for (JsonBuilder appended : getAppendedBuilders()) {
+                    generator.writeRaw(',');
+                    appended.writeRoot(generator, provider);
+                }
+            }
+
+            if (append) {
+                generator.writeRaw(']');
+            }
+        } catch (RepositoryException e) {
+            throw new IOException("Failed to read node from repository", e);
+        }
+    }
+
+    /**
+     * Copies of this builder rendering nodes appended by {@link JsonTemplatingFunctions#appendFrom(String, Collection)}, sharing expansions of this render.
+     */
+    private List<JsonBuilder> getAppendedBuilders() throws RepositoryException {
+        List<JsonBuilder> builders = new ArrayList<>();
+        for (Node appendedNode : appendedNodes) {
+            // each node is rendered down from its own depth, same as the first one
+            JsonBuilder appended = cloneWith(wrapForI18n ? new I18nNodeWrapper(appendedNode) : appendedNode);
+            appended.totalDepth = totalDepth - node.getDepth() + appendedNode.getDepth();
+            appended.expansions = expansions;
+            builders.add(appended);
+        }
+        return builders;
+    }
+
+    /**
+     * Child nodes of rendered node, or nodes found by the query when there is one.
+     */
+    private NodeIterator getSourceNodes() throws RepositoryException {
+        if (query == null) {
+            return node.getNodes();
+        }
+        cost.recordQuery();
+        return query.execute(node.getSession());
+    }
+
+    /**
+     * Source nodes of allowed types, read as they are iterated.
+     */
+    private Iterator<Node> getSourceNodeIterator() throws RepositoryException {
+        return asNodeStream(getSourceNodes()).map(this::wrapSourceNode).filter(this::isSearchInNodeType).iterator();
+    }
+
+    /**
+     * Query results are read from the session, so they need to be wrapped the same way rendered node was.
+     */
+    private Node wrapSourceNode(Node n) {
+        return query != null && wrapForI18n ? new I18nNodeWrapper(n) : n;
+    }
+
+    /**
+     * Query results come from any depth and each of them is rendered down as if it was the rendered node itself.
+     */
+    private int getTotalDepth(Node child) throws RepositoryException {
+        return query == null ? totalDepth : totalDepth + child.getDepth();
+    }
+
+    /**
+     * Reads child nodes of requested page. Tokens consist of position and name of the last node of the page, so the next page is found by skipping rather than by reading all preceding nodes, unless the children were reordered meanwhile.
+     *
+     * @return token of the next page or null when there are no more child nodes.
+     */
+    private String readPage(List<Node> nodes) throws RepositoryException {
+        NodeIterator children = getSourceNodes();
+        long position = 0;
+        if (StringUtils.isNotEmpty(pageAfter)) {
+            long lastPosition = NumberUtils.toLong(StringUtils.substringBefore(pageAfter, ":"));
+            String lastName = StringUtils.substringAfter(pageAfter, ":");
+            boolean found = false;
+            if (lastPosition > 0) {
+                try {
+                    children.skip(lastPosition - 1);
+                    found = lastName.equals(children.nextNode().getName());
+                } catch (NoSuchElementException e) {
+                    // nodes were removed meanwhile
+                }
+            }
+            if (found) {
+                position = lastPosition;
+            } else {
+                // nodes were moved meanwhile, look the last node up by its name
+                children = getSourceNodes();
+                while (children.hasNext() && !found) {
+                    position++;
+                    found = lastName.equals(children.nextNode().getName());
+                }
+                if (!found) {
+                    // last node is gone, continue at its former position
+                    children = getSourceNodes();
+                    position = 0;
+                    while (position < lastPosition && children.hasNext()) {
+                        children.nextNode();
+                        position++;
+                    }
+                }
+            }
+        } else {
+            int skipped = 0;
+            while (skipped < pageOffset && children.hasNext()) {
+                position++;
+                if (isSearchInNodeType(children.nextNode())) {
+                    skipped++;
+                }
+            }
+        }
+        String token = null;
+        while (children.hasNext()) {
+            Node child = wrapSourceNode(children.nextNode());
+            position++;
+            if (!isSearchInNodeType(child)) {
+                continue;
+            }
+            if (nodes.size() == pageLimit) {
+                return token;
+            }
+            nodes.add(child);
+            token = position + ":" + child.getName();
+        }
+        return null;
+    }
+
+    /**
+     * Renders batches of given nodes concurrently and writes rendered fragments in document order.
+     *
+     * @return false when nodes can't be rendered in parallel and need to be written sequentially.
      */
-    public JsonBuilder add(String... string) {
-        Arrays.stream(string)
-                .filter(it -> it.contains("['") && it.contains("']"))
-                .map(it -> it.split("\\['"))
-                .forEach(subpropertyArray -> addToSubPropertyMap(subpropertyArray[0], StringUtils.substringBefore(subpropertyArray[1], "']")));
-
-        List<String> list = new ArrayList<>();
-        Arrays.stream(string)
-                .filter(it -> !it.contains("['")).forEach(list::add);
-        this.butInclude.addAll(list);
-        return this;
+    private boolean writeInParallel(JsonGenerator generator, List<Node> nodes) throws IOException {
+        ThreadPoolExecutor executor = parallelExecutor.get();
+        if (executor == null) {
+            log.info("Rendering {} nodes sequentially, parallel rendering is available only while the jsonfn module runs.", nodes.size());
+            return false;
+        }
+        int parallelism = executor.getMaximumPoolSize();
+        int batchSize = Math.max(MIN_PARALLEL_BATCH_SIZE, (nodes.size() + parallelism - 1) / parallelism);
+        if (nodes.size() <= batchSize) {
+            return false;
+        }
+        // sessions are not thread safe, so each batch needs its own and nothing read through the sessions of this thread may be touched by workers
+        List<Map<String, Session>> batchSessions = new ArrayList<>();
+        List<List<String>> batchIdentifiers = new ArrayList<>();
+        String workspace;
+        try {
+            workspace = node.getSession().getWorkspace().getName();
+            for (int i = 0; i < nodes.size(); i += batchSize) {
+                List<String> identifiers = new ArrayList<>();
+                for (Node child : nodes.subList(i, Math.min(i + batchSize, nodes.size()))) {
+                    identifiers.add(child.getIdentifier());
+                }
+                batchIdentifiers.add(identifiers);
+                batchSessions.add(openSessions());
+            }
+        } catch (RepositoryException e) {
+            log.info("Rendering {} nodes sequentially, sessions for parallel rendering can't be opened: {}", nodes.size(), e.getMessage());
+            log.debug("Failed to open sessions for parallel rendering", e);
+            batchSessions.forEach(sessions -> sessions.values().forEach(Session::logout));
+            return false;
+        }
+        // the context of this thread isn't thread safe either, workers get copies of what they read from it
+        Context context = contextProvider.get();
+        Locale locale = wrapForI18n ? Components.getComponent(I18nContentSupport.class).getLocale() : context.getLocale();
+        User user = context.getUser();
+        List<CompletableFuture<TokenBuffer>> fragments = new ArrayList<>();
+        for (int i = 0; i < batchSessions.size(); i++) {
+            JsonBuilder worker = clone();
+            Map<String, Session> sessions = batchSessions.get(i);
+            Context workerContext = WorkerContext.create(sessions, locale, user);
+            worker.expansions = new Expansions(sessions, cost);
+            worker.contextProvider = () -> workerContext;
+            List<String> identifiers = batchIdentifiers.get(i);
+            fragments.add(CompletableFuture.supplyAsync(() -> worker.renderBatch(workspace, identifiers, workerContext, generator), executor));
+        }
+        for (CompletableFuture<TokenBuffer> fragment : fragments) {
+            try {
+                fragment.join().serialize(generator);
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to render nodes in parallel", e.getCause());
+            }
+        }
+        return true;
     }
 
-    private void addToSubPropertyMap(String parentNodeName, String propertyName) {
-        if (!subNodeSpecificProperties.containsKey(parentNodeName)) {
-            subNodeSpecificProperties.put(parentNodeName, new ArrayList<>());
+    /**
+     * Opens new sessions of current user for the workspace of the rendered node, all expanded workspaces and the dam workspace assets are linked from. Sessions are opened by impersonating the current user, which only privileged sessions (such as those of system or superuser) are permitted to do. There is no other way to open sessions of the same user without their credentials.
+     */
+    private Map<String, Session> openSessions() throws RepositoryException {
+        Session session = node.getSession();
+        SimpleCredentials credentials = new SimpleCredentials(session.getUserID(), new char[0]);
+        Set<String> workspaces = new LinkedHashSet<>(getExpandedWorkspaces());
+        if (Arrays.asList(session.getWorkspace().getAccessibleWorkspaceNames()).contains(DAM_WORKSPACE)) {
+            workspaces.add(DAM_WORKSPACE);
         }
-        subNodeSpecificProperties.get(parentNodeName).add(propertyName);
+        Map<String, Session> sessions = new HashMap<>();
+        try {
+            sessions.put(session.getWorkspace().getName(), session.impersonate(credentials));
+            for (String workspace : workspaces) {
+                if (!sessions.containsKey(workspace)) {
+                    sessions.put(workspace, getJCRSession(workspace).impersonate(credentials));
+                }
+            }
+        } catch (RepositoryException e) {
+            sessions.values().forEach(Session::logout);
+            throw e;
+        }
+        return sessions;
     }
 
     /**
-     * Includes only specified properties. Use together with excludeAll().
+     * Context of a worker thread. Answers from sessions of the worker and values copied from the context of the rendering thread, never from that context itself. Request attributes and anything else of the rendering thread are not available to workers.
      */
-    public JsonBuilder addAll() {
-        this.butInclude.add(".*");
-        return this;
-    }
+    private static final class WorkerContext implements InvocationHandler {
 
-    public JsonBuilder childrenAsArray(String propertyName, String valueRegex) {
-        childrenArrayCandidates.put(propertyName, valueRegex);
-        return this;
+        private final Map<String, Session> sessions;
+        private final Locale locale;
+        private final User user;
+
+        private WorkerContext(Map<String, Session> sessions, Locale locale, User user) {
+            this.sessions = sessions;
+            this.locale = locale;
+            this.user = user;
+        }
+
+        /**
+         * @param locale
+         *            locale of the content being rendered, i18n support of a context other than web context reads it from the context.
+         */
+        private static Context create(Map<String, Session> sessions, Locale locale, User user) {
+            return (Context) Proxy.newProxyInstance(Context.class.getClassLoader(), new Class<?>[] { Context.class }, new WorkerContext(sessions, locale, user));
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("getJCRSession".equals(name)) {
+                Session session = sessions.get((String) args[0]);
+                if (session == null) {
+                    throw new RepositoryException("Workspace " + args[0] + " is not available to parallel rendering");
+                }
+                return session;
+            } else if ("getLocale".equals(name)) {
+                return locale;
+            } else if ("getUser".equals(name)) {
+                return user;
+            } else if ("getAttribute".equals(name)) {
+                return null;
+            } else if ("getAttributes".equals(name)) {
+                return Collections.emptyMap();
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("toString".equals(name)) {
+                return "parallel rendering context of " + (user == null ? null : user.getName());
+            }
+            throw new UnsupportedOperationException(name + " is not available to parallel rendering");
+        }
     }
 
     /**
-     * Insert custom JSON anywhere in the tree, replacing pre-existing content.
-     * Invalid JSON is ignored, i.e. the original content remains in that case.
-     *
-     * @param pathSuffix
-     * @param json
+     * Renders nodes of given identifiers with this private copy of the builder, runs on worker thread.
      */
-    public JsonBuilder insertCustom(String pathSuffix, String json) {
+    private TokenBuffer renderBatch(String workspace, List<String> identifiers, Context context, JsonGenerator generator) {
+        Context previous = MgnlContext.hasInstance() ? MgnlContext.getInstance() : null;
+        MgnlContext.setInstance(context);
         try {
-            JsonNode jsonObject = mapper.reader().readTree(json);
-            customInserts.put(pathSuffix, jsonObject);
+            Session session = expansions.sessions.get(workspace);
+            List<Node> nodes = new ArrayList<>();
+            for (String identifier : identifiers) {
+                Node workerNode = session.getNodeByIdentifier(identifier);
+                nodes.add(wrapForI18n ? new I18nNodeWrapper(workerNode) : workerNode);
+            }
+            prefetchReferencesOf(nodes);
+            // providers are not thread safe, each worker needs its own
+            SerializerProvider provider = mapper.getSerializerProviderInstance();
+            TokenBuffer buffer = new TokenBuffer(generator.getCodec(), false);
+            for (Node child : nodes) {
+                writeValue(buffer, provider, new EntryableContentMap(this, child, null, getTotalDepth(child)));
+            }
+            return buffer;
         } catch (IOException e) {
-            log.debug("Failed to parse custom JSON", e);
+            throw new CompletionException(e);
+        } catch (RepositoryException e) {
+            throw new CompletionException(new IOException("Failed to read node from repository", e));
+        } finally {
+            expansions.sessions.values().forEach(Session::logout);
+            MgnlContext.setInstance(previous);
         }
-        return this;
-    }
-
-    public JsonBuilder renameKey(String replaceRegex, String replacement) {
-        this.renames.put(Pattern.compile(replaceRegex), replacement);
-        return this;
     }
 
     /**
-     * Executes configured chain of operations and produces the json output.
+     * Writes out json this builder is supposed to be appended to (if any). The json is validated in a single pass and spliced into the output as it is, up to the end of its items, rather than copied into new strings.
+     *
+     * @return true when the output needs to be closed as an array.
      */
-    public String print() {
-
-        ObjectWriter ow = mapper.writer();
-        if (!inline) {
-            ow = ow.withDefaultPrettyPrinter();
+    private boolean writePreexistingJson(JsonGenerator generator) throws IOException {
+        if (StringUtils.isEmpty(preexisingJson)) {
+            return false;
+        }
+        JsonToken root;
+        boolean empty = false;
+        int end;
+        try (JsonParser parser = mapper.getFactory().createParser(preexisingJson)) {
+            root = parser.nextToken();
+            if (root == JsonToken.START_ARRAY) {
+                empty = true;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    empty = false;
+                    parser.skipChildren();
+                }
+            } else if (root == JsonToken.START_OBJECT) {
+                parser.skipChildren();
+            }
+            end = (int) parser.getTokenLocation().getCharOffset();
+            if (root == null || root.isScalarValue() || parser.nextToken() != null) {
+                log.warn("Ignoring json to append to, it is neither single json object nor array: {}", StringUtils.abbreviate(preexisingJson, 100));
+                return false;
+            }
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring json to append to, it is not valid: {}", e.getOriginalMessage());
+            return false;
         }
+        // objects become first item of the array, arrays are left open for more items
+        if (root == JsonToken.START_OBJECT) {
+            generator.writeRaw('[');
+            end = preexisingJson.length();
+        }
+        if (escapeBackslash) {
+            // raw output bypasses escaping of the generator
+            generator.writeRaw(StringUtils.replace(preexisingJson.substring(0, end), "\\", "\\\\"));
+        } else {
+            generator.writeRaw(preexisingJson, 0, end);
+        }
+        if (!empty) {
+            generator.writeRaw(',');
+        }
+        return true;
+    }
 
-        if (wrapForI18n) {
-            node = new I18nNodeWrapper(node);
+    /**
+     * Writes out the rendered node as single object.
+     */
+    private void writeRoot(JsonGenerator generator, SerializerProvider provider) throws IOException {
+        EntryableContentMap map = new EntryableContentMap(this);
+        generator.writeStartObject();
+        for (Map.Entry<String, Object> entry : map.resolvedEntries()) {
+            // skip sub nodes with nothing to show
+            if (entry.getValue() instanceof EntryableContentMap && ((EntryableContentMap) entry.getValue()).resolvedEntries().isEmpty()) {
+                continue;
+            }
+            generator.writeFieldName(entry.getKey());
+            writeValue(generator, provider, entry.getValue());
         }
-        try {
-            // total depth is that of starting node + set total by user
-            totalDepth += node.getDepth();
-            String json;
-            if (childrenOnly) {
-                Collection<EntryableContentMap> childNodes = new LinkedList<>();
-                NodeIterator nodes = this.node.getNodes();
-                asNodeStream(nodes)
-                        .filter(this::isSearchInNodeType)
-                        .map(this::cloneWith)
-                        .forEach(builder -> childNodes.add(new EntryableContentMap(builder)));
-                json = ow.writeValueAsString(childNodes);
-            } else if (!allowOnlyNodeTypes.equals(".*")) {
-                Collection<EntryableContentMap> childNodes = new LinkedList<>();
-                NodeIterator nodes = this.node.getNodes();
-                asNodeStream(nodes)
-                        .filter(this::isSearchInNodeType)
-                        .forEach(new PredicateSplitterConsumer<>(this::isOfAllowedDepthAndType,
-                                allowedNode -> childNodes.add(new EntryableContentMap(this.cloneWith(allowedNode))),
-                                allowedParent -> childNodes.addAll(this.getAllowedChildNodesContentMapsOf(allowedParent, 1))));
-                json = ow.writeValueAsString(childNodes);
+        generator.writeEndObject();
+    }
 
+    private void writeAllowedChildNodesOf(Node n, boolean separateBatches, MapWriter writer) throws IOException, RepositoryException {
+        writeSiblings(asNodeStream(n.getNodes()).filter(this::isSearchInNodeType).iterator(), separateBatches, child -> {
+            if (isOfAllowedDepthAndType(child)) {
+                writer.write(new EntryableContentMap(this, child, null, totalDepth));
             } else {
-                EntryableContentMap map = new EntryableContentMap(this);
-                List<String> garbage = map.entrySet().stream()
-                        .filter(entry -> entry.getValue() instanceof EntryableContentMap)
-                        .filter(entry -> ((EntryableContentMap) entry.getValue()).entrySet().isEmpty())
-                        .map(Map.Entry::getKey)
-                        .collect(Collectors.toList());
-                garbage.forEach(map::remove);
-                json = ow.writeValueAsString(map);
+                try {
+                    writeAllowedChildNodesOf(child, separateBatches, writer);
+                } catch (RepositoryException e) {
+                    // failed to get child nodes
+                    log.error(e.getMessage(), e);
+                }
             }
+        });
+    }
+
+    /**
+     * Writes out given siblings as they are read. When {@link #prefetch()} is enabled, siblings are read in batches and nodes referenced by each batch are resolved before it is written, so only a batch of siblings is held at a time.
+     *
+     * @param separateBatches
+     *            whether expanded nodes are resolved and rendered anew for each batch rather than kept for the whole render. Expansions of the enclosing batch are restored once the siblings are written, so siblings written by a nested call don't drop what was resolved for the batch they are nested in.
+     */
+    private void writeSiblings(Iterator<Node> siblings, boolean separateBatches, NodeWriter writer) throws IOException, RepositoryException {
+        int batchSize = prefetch ? PREFETCH_SIBLINGS_BATCH_SIZE : 1;
+        List<Node> batch = new ArrayList<>(batchSize);
+        Expansions enclosing = expansions;
+        boolean more;
+        try {
+            do {
+                long sourceStart = System.nanoTime();
+                more = siblings.hasNext();
+                if (more) {
+                    batch.add(siblings.next());
+                }
+                cost.recordSourceTime(System.nanoTime() - sourceStart);
+                if (batch.size() == batchSize || !more && !batch.isEmpty()) {
+                    if (separateBatches) {
+                        expansions = new Expansions(cost);
+                    }
+                    prefetchReferencesOf(batch);
+                    for (Node sibling : batch) {
+                        writer.write(sibling);
+                    }
+                    batch.clear();
+                }
+            } while (more);
+        } finally {
+            expansions = enclosing;
+        }
+    }
 
-            if (StringUtils.isNotEmpty(preexisingJson)) {
-                String trimmedJson = preexisingJson.trim();
-                if (trimmedJson.endsWith("}")) {
-                    json = "[" + preexisingJson + "," + json + "]";
-                } else if (trimmedJson.endsWith("]")) {
-                    json = StringUtils.substringBeforeLast(preexisingJson, "]") + (trimmedJson.equals("[]") ? "" : ",") + json + "]";
+    private void writeValue(JsonGenerator generator, SerializerProvider provider, Object value) throws IOException {
+        if (value instanceof EntryableContentMap && ((EntryableContentMap) value).expansionKey != null) {
+            EntryableContentMap map = (EntryableContentMap) value;
+            // same node expanded with same settings renders the same, record it when referenced again and replay it for any further references
+            TokenBuffer buffer = expansions.rendered.get(map.expansionKey);
+            if (buffer == null && expansions.expanded.add(map.expansionKey)) {
+                // most nodes are referenced only once, no need to hold on to their output
+                writeObject(generator, provider, map);
+            } else {
+                if (buffer == null) {
+                    buffer = new TokenBuffer(generator.getCodec(), false);
+                    writeObject(buffer, provider, map);
+                    expansions.rendered.put(map.expansionKey, buffer);
+                } else {
+                    map.release();
                 }
+                buffer.serialize(generator);
             }
-            if (escapeBackslash) {
-                json = ESCAPES.matcher(json).replaceAll("\\\\\\\\");
+        } else if (value instanceof EntryableContentMap) {
+            writeObject(generator, provider, (EntryableContentMap) value);
+        } else if (value instanceof PropertyValues) {
+            ((PropertyValues) value).write(generator, propertySerializers);
+        } else if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object item : (Collection<?>) value) {
+                writeValue(generator, provider, item);
             }
-            return json;
-        } catch (JsonProcessingException | RepositoryException e) {
-            log.debug("Failed to generate JSON string", e);
+            generator.writeEndArray();
+        } else {
+            provider.defaultSerializeValue(value, generator);
         }
+    }
 
-        return "{ }";
+    private void writeObject(JsonGenerator generator, SerializerProvider provider, EntryableContentMap map) throws IOException {
+        generator.writeStartObject();
+        try {
+            for (Map.Entry<String, Object> entry : map.resolvedEntries()) {
+                generator.writeFieldName(entry.getKey());
+                writeValue(generator, provider, entry.getValue());
+            }
+        } catch (RuntimeException e) {
+            throw JsonMappingException.from(generator, "Failed to generate JSON for " + map.getJCRNode(), e);
+        }
+        generator.writeEndObject();
+        // subtree is written already, no need to hold on to it
+        map.release();
     }
 
     private boolean isSearchInNodeType(Node n) {
         try {
-            return n != null && n.getPrimaryNodeType().getName().matches(readNodeTypes);
+            return n != null && patterns.readNodeTypes.matcher(n.getPrimaryNodeType().getName()).matches();
         } catch (RepositoryException e) {
             // when failing to check because of the repo issue, assume node is fine.
             log.error(e.getMessage(), e);
             return true;
-        } catch (PatternSyntaxException e) {
-            // when failing due to broken pattern, leave result empty to alert dev to broken pattern.
-            log.error(e.getMessage(), e);
-            return false;
         }
     }
 
     private boolean isOfAllowedDepthAndType(Node n) {
+        return isOfAllowedDepthAndType(n, this.totalDepth);
+    }
+
+    private boolean isOfAllowedDepthAndType(Node n, int totalDepth) {
         boolean keep = true;
         try {
-            keep = (this.totalDepth >= n.getDepth()) && isOfAllowedNodeType(n);
+            keep = (totalDepth >= n.getDepth()) && isOfAllowedNodeType(n);
         } catch (RepositoryException e) {
             // ignore
         }
@@ -397,38 +1975,65 @@ public class JsonBuilder implements Cloneable {
 
     private boolean isOfAllowedNodeType(Node n) {
         try {
-            return n != null && n.getPrimaryNodeType().getName().matches(allowOnlyNodeTypes);
+            return n != null && patterns.allowOnlyNodeTypes.matcher(n.getPrimaryNodeType().getName()).matches();
         } catch (RepositoryException e) {
             // when failing to check because of the repo issue, assume node is fine.
             log.error(e.getMessage(), e);
             return true;
-        } catch (PatternSyntaxException e) {
-            // when failing due to broken pattern, leave result empty to alert dev to broken pattern.
-            log.error(e.getMessage(), e);
-            return false;
         }
     }
 
-    private Collection<EntryableContentMap> getAllowedChildNodesContentMapsOf(Node n, int levels) {
-        try {
-            Collection<EntryableContentMap> childNodes = new LinkedList<>();
-            NodeIterator nodes = n.getNodes();
-            asNodeStream(nodes)
-                    .filter(this::isSearchInNodeType)
-                    .forEach(new PredicateSplitterConsumer<>(this::isOfAllowedDepthAndType,
-                            allowedNode -> childNodes.add(new EntryableContentMap(this.cloneWith(allowedNode))),
-                            allowedParent -> childNodes.addAll(this.getAllowedChildNodesContentMapsOf(allowedParent, levels + 1))));
-            return childNodes;
-        } catch (RepositoryException e) {
-            // failed to get child nodes
-            log.error(e.getMessage(), e);
-            return Collections.emptyList();
+    /**
+     * Resolves nodes referenced by expandable properties of given siblings in bulk when {@link #prefetch()} is enabled.
+     */
+    private void prefetchReferencesOf(List<Node> siblings) {
+        if (!prefetch) {
+            return;
+        }
+        long start = System.nanoTime();
+        Map<String, Set<String>> references = new HashMap<>();
+        for (Node sibling : siblings) {
+            try {
+                PropertyIterator properties = sibling.getProperties();
+                while (properties.hasNext()) {
+                    Property property = properties.nextProperty();
+                    String workspace = getReferencedWorkspace(property.getName());
+                    if (workspace == null || property.getType() == PropertyType.BINARY) {
+                        continue;
+                    }
+                    Value[] values = property.isMultiple() ? property.getValues() : new Value[] { property.getValue() };
+                    for (Value value : values) {
+                        references.computeIfAbsent(workspace, key -> new LinkedHashSet<>()).add(StringUtils.removeStart(value.getString(), "jcr:"));
+                    }
+                }
+            } catch (RepositoryException e) {
+                log.debug("Failed to collect references of {} with {}", sibling, e.getMessage(), e);
+            }
+        }
+        references.forEach(expansions::prefetch);
+        cost.recordPrefetchTime(System.nanoTime() - start);
+    }
+
+    /**
+     * Workspace of nodes referenced by identifier or path from given property, or null when property is not expanded that way.
+     */
+    private String getReferencedWorkspace(String propertyName) {
+        String workspace = expands.get(propertyName);
+        if (workspace != null) {
+            return workspace;
         }
+        return patterns.expandsMulti.entrySet().stream()
+                .filter(entry -> entry.getKey().matcher(propertyName).matches())
+                .findFirst()
+                .map(Map.Entry::getValue)
+                .filter(multi -> "jcr:uuid".equals(multi.propertyName))
+                .map(multi -> multi.repository)
+                .orElse(null);
     }
 
     private boolean isExpandable(String propertyName) {
         // quick check for simple props
-        return expands.containsKey(propertyName) || expandsMulti.keySet().stream().anyMatch(propertyName::matches);
+        return expands.containsKey(propertyName) || patterns.expandsMulti.keySet().stream().anyMatch(pattern -> pattern.matcher(propertyName).matches());
 
     }
 
@@ -466,41 +2071,115 @@ public class JsonBuilder implements Cloneable {
         private final Map<String, Object> props = new LinkedHashMap<>();
 
         /**
-         * Represents getters of the node itself.
+         * Reads value of special property from the node.
+         */
+        private interface SpecialProperty {
+            Object read(Node node, JsonBuilder config) throws RepositoryException;
+        }
+
+        /**
+         * Represents getters of the node itself. Kept in hash map as its iteration order defines order of special properties in the output.
+         */
+        private static final Map<String, SpecialProperty> specialProperties = new HashMap<>();
+
+        static {
+            specialProperties.put("@name", (node, config) -> node.getName());
+            specialProperties.put("@id", (node, config) -> node.getIdentifier());
+            specialProperties.put("@path", (node, config) -> node.getPath());
+            specialProperties.put("@depth", (node, config) -> node.getDepth());
+            specialProperties.put("@nodeType", (node, config) -> node.getPrimaryNodeType().getName());
+            specialProperties.put("@link", EntryableContentMap::createLink);
+        }
+
+        /**
+         * Configuration shared by all maps of single render.
+         */
+        private final JsonBuilder config;
+
+        /**
+         * Name of the property this node was expanded from, null for nodes that are not expanded.
          */
-        private final Map<String, Method> specialProperties = new HashMap<>();
+        private final String referencingPropertyName;
 
-        private JsonBuilder config;
+        /**
+         * Depth in workspace up to which sub nodes are rendered.
+         */
+        private final int totalDepth;
 
         private List<Object> deletedKeys = new LinkedList<>();
 
+        /**
+         * Identifies output of expanded node within single render, null for nodes that are not expanded.
+         */
+        private String expansionKey;
+
         public EntryableContentMap(JsonBuilder builder) {
-            super(builder.node);
-            this.config = builder;
+            this(builder.detached(), builder.node, builder.referencingPropertyName, builder.totalDepth);
+        }
+
+        private EntryableContentMap(JsonBuilder config, Node node, String referencingPropertyName, int totalDepth) {
+            super(node);
+            this.config = config;
+            this.referencingPropertyName = referencingPropertyName;
+            this.totalDepth = totalDepth;
+        }
+
+        /**
+         * Map of given sub node, rendered with same configuration and depth as this node.
+         */
+        private EntryableContentMap subNode(Node node) {
+            return new EntryableContentMap(config, node, null, totalDepth);
+        }
 
-            Class<? extends Node> clazz = builder.node.getClass();
+        private static Object createLink(Node node, JsonBuilder config) {
             try {
-                specialProperties.put("@name", clazz.getMethod("getName", (Class<?>[]) null));
-                specialProperties.put("@id", clazz.getMethod("getIdentifier", (Class<?>[]) null));
-                specialProperties.put("@path", clazz.getMethod("getPath", (Class<?>[]) null));
-                specialProperties.put("@depth", clazz.getMethod("getDepth", (Class<?>[]) null));
-                specialProperties.put("@nodeType", clazz.getMethod("getPrimaryNodeType", (Class<?>[]) null));
-                specialProperties.put("@link", LinkUtil.class.getMethod("createAbsoluteLink", Node.class));
-            } catch (SecurityException e) {
-                log.debug("Failed to gain access to Node get***() method. Check VM security settings. {}", e.getLocalizedMessage(), e);
-            } catch (NoSuchMethodException e) {
-                log.debug("Failed to retrieve get***() method of Node class. Check the classpath for conflicting version of JCR classes. {}", e.getLocalizedMessage(), e);
+                if (node.getPrimaryNodeType().getName().equals("mgnl:asset")) {
+                    return config.getDamTemplatingFunctions().getAssetLink("jcr:" + node.getIdentifier());
+                }
+            } catch (RepositoryException e) {
+                // bad luck we handle it the usual way
+                log.debug("Failed to create link for {} with {}", node, e.getMessage(), e);
             }
+            return LinkUtil.createAbsoluteLink(node);
         }
 
-        @Override
-        public Set<java.util.Map.Entry<String, Object>> entrySet() {
+        /**
+         * Drops resolved properties, they will be resolved again on next access.
+         */
+        private void release() {
+            props.clear();
+        }
+
+        /**
+         * Resolved properties as they are written by the builder, values of flat properties are kept as read for the serializers.
+         */
+        private Set<java.util.Map.Entry<String, Object>> resolvedEntries() {
             if (props.isEmpty()) {
                 populateProperties(props);
             }
             return props.entrySet();
         }
 
+        /**
+         * Resolved properties with plain java values (strings, numbers, calendars, ...) of flat properties, same as {@link ContentMap} has them.
+         */
+        @Override
+        public Set<java.util.Map.Entry<String, Object>> entrySet() {
+            Map<String, Object> plain = new LinkedHashMap<>();
+            resolvedEntries().forEach(entry -> plain.put(entry.getKey(), toPlainValue(entry.getValue())));
+            return plain.entrySet();
+        }
+
+        private static Object toPlainValue(Object value) {
+            if (value instanceof PropertyValues) {
+                return ((PropertyValues) value).toPlainValue();
+            }
+            if (value instanceof Collection) {
+                return ((Collection<?>) value).stream().map(EntryableContentMap::toPlainValue).collect(Collectors.toList());
+            }
+            return value;
+        }
+
         @Override
         public boolean containsKey(Object key) {
             if (props.isEmpty()) {
@@ -526,27 +2205,22 @@ public class JsonBuilder implements Cloneable {
                 return superResult;
 
             Node node = ((ContentMap) superResult).getJCRNode();
-            if (hasCustomReplacement(node))
-                return getCustomReplacement(node);
+            JsonNode replacement = getCustomReplacement(node);
+            if (replacement != null)
+                return replacement;
             if (isArrayParent(node))
                 return childrenAsContentMapList(node);
 
             return superResult;
         }
 
-        private boolean hasCustomReplacement(Item item) {
-            return getCustomReplacement(item) != null;
-        }
-
         private JsonNode getCustomReplacement(Item item) {
+            if (config.patterns.customInserts.isEmpty()) {
+                // no need to read the path
+                return null;
+            }
             try {
-                final String path = item.getPath();
-
-                Optional<String> keyOptional = config.customInserts.keySet().stream()
-                        .filter(path::endsWith)
-                        .findFirst();
-                if (keyOptional.isPresent())
-                    return config.customInserts.get(keyOptional.get());
+                return config.patterns.customInserts.get(item.getPath());
             } catch (RepositoryException e) {
                 log.debug("Failed to get path of JCR item", e);
             }
@@ -555,25 +2229,24 @@ public class JsonBuilder implements Cloneable {
         }
 
         private boolean isArrayParent(Node candidate) {
-            for (String key : config.childrenArrayCandidates.keySet()) {
-                final String value = config.childrenArrayCandidates.get(key);
-                final Pattern valuePattern = Pattern.compile(value);
-                final Pattern keyPattern = Pattern.compile(key);
+            for (ArrayCandidate arrayCandidate : config.patterns.childrenArrayCandidates) {
+                if (!arrayCandidate.specialOnly) {
+                    try {
+                        // properties as stored, not their localized variants which getProperty(name) of i18n wrapper would resolve
+                        PropertyIterator properties = arrayCandidate.globs != null ? candidate.getProperties(arrayCandidate.globs) : candidate.getProperties();
+                        if (asPropertyStream(properties).anyMatch(arrayCandidate::matches)) {
+                            return true;
+                        }
+                    } catch (RepositoryException e) {
+                        log.debug("Failed to get properties of node", e);
+                    }
+                }
 
-                try {
-                    if (!asPropertyStream(candidate.getProperties())
-                            .filter(p -> keyPattern.matcher(getName(p)).matches() && valuePattern.matcher(getValueString(p)).matches())
-                            .collect(Collectors.toList()).isEmpty())
+                for (SpecialProperty specialProperty : arrayCandidate.specialProperties) {
+                    if (arrayCandidate.value.matcher(invoke(specialProperty, candidate) + "").matches()) {
                         return true;
-                } catch (RepositoryException e) {
-                    log.debug("Failed to get properties of node", e);
+                    }
                 }
-
-                if (!specialProperties.entrySet().stream()
-                        .filter(entry -> keyPattern.matcher(entry.getKey()).matches())
-                        .filter(entry -> valuePattern.matcher(invoke(entry.getValue(), candidate) + "").matches())
-                        .collect(Collectors.toList()).isEmpty())
-                    return true;
             }
 
             return false;
@@ -582,7 +2255,7 @@ public class JsonBuilder implements Cloneable {
         private List<ContentMap> childrenAsContentMapList(Node node) {
             try {
                 return asNodeStream(node.getNodes())
-                        .map(n -> new EntryableContentMap(config.cloneWith(n)))
+                        .map(this::subNode)
                         .collect(Collectors.toList());
             } catch (RepositoryException e) {
                 log.debug("Failed to get children of node {}", node, e);
@@ -591,59 +2264,81 @@ public class JsonBuilder implements Cloneable {
         }
 
         private void populateProperties(Map<String, Object> props) {
+            config.cost.recordNode();
             PropertyIterator properties;
             try {
                 Node node = getJCRNode();
                 // filter properties only for the nodetypes we are interested in, but skip the rest
-                if (node.getPrimaryNodeType().getName().matches(config.allowOnlyNodeTypes)) {
-                    properties = node.getProperties();
+                if (config.patterns.allowOnlyNodeTypes.matcher(node.getPrimaryNodeType().getName()).matches()) {
                     Stream<String> stream;
-                    List<String> includes = new LinkedList<>();
-                    includes.addAll(config.butInclude);
-                    if (config.subNodeSpecificProperties.containsKey(node.getName())) {
-                        includes.addAll(config.subNodeSpecificProperties.get(node.getName()));
+                    List<Pattern> includes = new ArrayList<>(config.patterns.includes);
+                    List<String> globs = config.patterns.includeGlobs == null ? null : new ArrayList<>(config.patterns.includeGlobs);
+                    final String nodeName = node.getName();
+                    for (SubNodeProperties subNode : config.patterns.subNodeSpecificProperties) {
+                        if (subNode.appliesTo(nodeName) || subNode.appliesTo(referencingPropertyName)) {
+                            includes.addAll(subNode.properties);
+                            if (globs != null && subNode.globs != null) {
+                                globs.addAll(subNode.globs);
+                            } else {
+                                globs = null;
+                            }
+                        }
                     }
-
-                    Stream<String> matchedRegex = getAllMatchedRegex(node.getName(), config.subNodeSpecificProperties.keySet());
-                    matchedRegex.forEach(match -> includes.addAll(config.subNodeSpecificProperties.get(match)));
-
-                    if (config.subNodeSpecificProperties.containsKey(config.referencingPropertyName)) {
-                        includes.addAll(config.subNodeSpecificProperties.get(config.referencingPropertyName));
+                    // read only the included properties when their names are known instead of walking all of them
+                    if (globs == null || globs.contains("*")) {
+                        properties = node.getProperties();
+                    } else if (globs.isEmpty()) {
+                        properties = null;
+                    } else {
+                        properties = node.getProperties(globs.toArray(new String[globs.size()]));
                     }
+                    final List<Pattern> excludes = config.patterns.excludes;
 
-                    matchedRegex = getAllMatchedRegex(config.referencingPropertyName, config.subNodeSpecificProperties.keySet());
-                    matchedRegex.forEach(match -> includes.addAll(config.subNodeSpecificProperties.get(match)));
-
-                    stream = asPropertyStream(properties)
+                    stream = (properties == null ? Stream.<Property> empty() : asPropertyStream(properties))
                             .map(Java8Util::getName)
                             .filter(name -> matchesRegex(name, includes))
-                            .filter(name -> !matchesRegex(name, config.regexExcludes) && !matchesRegex(getName(node) + "'" + name + "'", config.regexExcludes));
-
-                    // do not try to include binary data since we don't try to encode them either and jackson just blows w/o that
-                    stream.filter(name -> getJCRPropertyType(getPropertyValueObject(node, name)) != PropertyType.BINARY)
-                            .forEach(new PredicateSplitterConsumer<>(config::isExpandable,
-                                    expandableProperty -> props.put(renameAndMask(expandableProperty), expand(expandableProperty, node)),
-                                    flatProperty -> props.put(renameAndMask(flatProperty), getPropertyValueObject(node, flatProperty))));
-
-                    asPropertyStream(node.getProperties())
-                            .filter(this::hasCustomReplacement)
-                            .forEach(p -> props.put(renameAndMask(getName(p)), getCustomReplacement(p)));
+                            .filter(name -> !matchesRegex(name, excludes) && !matchesRegex(getName(node) + "'" + name + "'", excludes));
+
+                    int populated = props.size();
+                    stream.forEach(name -> {
+                        // read through the node (rather than taking iterated properties) to get localized values of wrapped nodes
+                        Property property = getPropertyOrNull(node, name);
+                        // do not try to include binary data since we don't try to encode them either and jackson just blows w/o that
+                        if (property == null || getType(property) == PropertyType.BINARY) {
+                            return;
+                        }
+                        if (config.isExpandable(name)) {
+                            props.put(renameAndMask(name), expand(name, node));
+                        } else {
+                            props.put(renameAndMask(name), readValues(property));
+                        }
+                    });
+                    config.cost.recordProperties(props.size() - populated);
+
+                    if (!config.patterns.customInserts.isEmpty()) {
+                        asPropertyStream(node.getProperties()).forEach(p -> {
+                            JsonNode replacement = getCustomReplacement(p);
+                            if (replacement != null) {
+                                props.put(renameAndMask(getName(p)), replacement);
+                            }
+                        });
+                    }
 
                     // merge multiexpands with use of temp copy to avoid CCME
                     HashMap<String, Object> propsClone = new HashMap<>(props);
-                    config.expandsMulti.keySet().stream()
-                            .map(key -> new AbstractMap.SimpleEntry<>(key, propsClone.keySet().stream()
-                                    .filter(propKey -> propKey.matches(key))
+                    config.patterns.expandsMulti.keySet().stream()
+                            .map(key -> new AbstractMap.SimpleEntry<>(key.pattern(), propsClone.keySet().stream()
+                                    .filter(propKey -> key.matcher(propKey).matches())
                                     .map(props::remove)
                                     .collect(Collectors.toList())))
                             .map(entry -> new AbstractMap.SimpleEntry<>(entry.getKey(), flatten(entry.getValue())))
                             .filter(entry -> entry.getValue().size() > 0)
                             .forEach(entry -> props.put(renameAndMask(entry.getKey()), entry.getValue()));
 
-                    Stream<Entry<String, Method>> specialStream;
+                    Stream<Entry<String, SpecialProperty>> specialStream;
                     specialStream = specialProperties.entrySet().stream()
                             .filter(entry -> matchesRegex(entry.getKey(), includes))
-                            .filter(entry -> (!matchesRegex(entry.getKey(), config.regexExcludes) && !matchesRegex(getName(node) + "'" + entry.getKey() + "'", config.regexExcludes)));
+                            .filter(entry -> (!matchesRegex(entry.getKey(), excludes) && !matchesRegex(getName(node) + "'" + entry.getKey() + "'", excludes)));
                     specialStream.forEach(entry -> props.put(renameAndMask(entry.getKey()), invoke(entry.getValue(), node)));
                     if (node.getPrimaryNodeType().getName().equals("mgnl:asset")) {
                         config.renditions.forEach(rendition -> props.put("@rendition_" + rendition, generateRenditionLink(rendition, node)));
@@ -651,10 +2346,12 @@ public class JsonBuilder implements Cloneable {
                 } else {
                     // nothing since we don't do anything except for removal.
                 }
-                if (config.totalDepth >= node.getDepth()) {
-                    asNodeStream(node.getNodes())
+                if (totalDepth >= node.getDepth()) {
+                    List<Node> children = asNodeStream(node.getNodes())
                             .filter(config::isSearchInNodeType)
-                            .forEach(new PredicateSplitterConsumer<>(config::isOfAllowedDepthAndType,
+                            .collect(Collectors.toList());
+                    config.prefetchReferencesOf(children);
+                    children.forEach(new PredicateSplitterConsumer<>(child -> config.isOfAllowedDepthAndType(child, totalDepth),
                                     allowedNode -> props.put(renameAndMask(getName(allowedNode)), getOutputSubtree(allowedNode)),
                                     allowedParent -> props.putAll(this.getAllowedChildNodesPropertyMapsOf(allowedParent))));
                 }
@@ -667,6 +2364,24 @@ public class JsonBuilder implements Cloneable {
             deletedKeys.forEach(props::remove);
         }
 
+        private int getType(Property property) {
+            try {
+                return property.getType();
+            } catch (RepositoryException e) {
+                log.debug("Failed to get type of property", e);
+                return PropertyType.UNDEFINED;
+            }
+        }
+
+        private PropertyValues readValues(Property property) {
+            try {
+                return new PropertyValues(property);
+            } catch (RepositoryException e) {
+                log.debug("Failed to read values of property", e);
+                return null;
+            }
+        }
+
         private Collection<Object> flatten(List<Object> values) {
             if (values.size() == 0) {
                 // nothing to do
@@ -681,43 +2396,54 @@ public class JsonBuilder implements Cloneable {
                     return values;
                 }
             }
-            // dedup the items in the result list
-            TreeSet<Object> flat = new TreeSet<>((o1, o2) -> {
-                if (!(o1 instanceof EntryableContentMap) || !(o2 instanceof EntryableContentMap)) {
-                    return o1.equals(o2) ? 0 : 1;
-                }
-                EntryableContentMap c1 = (EntryableContentMap) o1;
-                EntryableContentMap c2 = (EntryableContentMap) o2;
-                return (c1.entrySet().containsAll(c2.entrySet()) && c2.entrySet().containsAll(c1.entrySet())) ? 0 : (c1.size() > c2.size() ? 1 : -1);
-            });
+            // dedup the items in the result list keeping the order they were found in
+            Map<Object, Object> flat = new LinkedHashMap<>();
             // and flatten out collections (if any)
             values.forEach(new PredicateSplitterConsumer<>(item -> item instanceof Collection,
-                    item -> flat.addAll((Collection) item),
-                    flat::add));
-            return flat;
+                    item -> ((Collection<?>) item).forEach(element -> addDistinct(flat, element)),
+                    item -> addDistinct(flat, item)));
+            return flat.values();
+        }
+
+        private void addDistinct(Map<Object, Object> flat, Object item) {
+            // references to missing nodes expand to nothing
+            if (item != null) {
+                flat.putIfAbsent(getIdentity(item), item);
+            }
+        }
+
+        /**
+         * Expanded nodes are the same when they come from the same workspace and have the same identifier, other values when they are equal.
+         */
+        private Object getIdentity(Object value) {
+            if (value instanceof Collection) {
+                // avoid hashing whole rendered maps of nested lists
+                return ((Collection<?>) value).stream().map(this::getIdentity).collect(Collectors.toList());
+            }
+            if (value instanceof EntryableContentMap) {
+                Node node = ((EntryableContentMap) value).getJCRNode();
+                try {
+                    return Arrays.asList(node.getSession().getWorkspace().getName(), node.getIdentifier());
+                } catch (RepositoryException e) {
+                    log.debug("Failed to identify expanded node {}", node, e);
+                }
+            }
+            return value;
         }
 
         private Object getOutputSubtree(Node node) {
-            if (hasCustomReplacement(node))
-                return getCustomReplacement(node);
+            JsonNode replacement = getCustomReplacement(node);
+            if (replacement != null)
+                return replacement;
 
             if (isArrayParent(node))
                 return childrenAsContentMapList(node);
 
-            return new EntryableContentMap(config.cloneWith(node));
+            return subNode(node);
         }
 
         private String renameAndMask(String name) {
-            for (Entry<Pattern, String> e : config.renames.entrySet()) {
-                if (e.getKey().matcher(name).matches()) {
-                    name = e.getValue();
-                    break;
-                }
-            }
-            for (Entry<Character, Character> e : config.masks.entrySet()) {
-                name = name.replace(e.getKey(), e.getValue());
-            }
-            return name;
+            return config.patterns.toKey(name);
         }
 
         private Map<String, Object> getAllowedChildNodesPropertyMapsOf(Node parent) {
@@ -725,8 +2451,8 @@ public class JsonBuilder implements Cloneable {
                 Map<String, Object> props = new LinkedHashMap<>();
                 asNodeStream(parent.getNodes())
                         .filter(config::isSearchInNodeType)
-                        .forEach(new PredicateSplitterConsumer<>(config::isOfAllowedDepthAndType,
-                                allowedNode -> props.put(renameAndMask(getName(allowedNode)), new EntryableContentMap(config.cloneWith(allowedNode))),
+                        .forEach(new PredicateSplitterConsumer<>(child -> config.isOfAllowedDepthAndType(child, totalDepth),
+                                allowedNode -> props.put(renameAndMask(getName(allowedNode)), subNode(allowedNode)),
                                 allowedParent -> props.putAll(this.getAllowedChildNodesPropertyMapsOf(allowedParent))));
                 return props;
             } catch (RepositoryException e) {
@@ -744,29 +2470,12 @@ public class JsonBuilder implements Cloneable {
             return null;
         }
 
-        private Object invoke(Method method, Node node) {
+        private Object invoke(SpecialProperty property, Node node) {
             try {
-                try {
-                    if (method.getName().equals("createAbsoluteLink") && node.getPrimaryNodeType().getName().equals("mgnl:asset")) {
-                        return config.getDamTemplatingFunctions().getAssetLink("jcr:" + node.getIdentifier());
-                    }
-                } catch (RepositoryException e) {
-                    // bad luck we handle it the usual way
-                    log.debug("Failed to create link using {} for {} with {}", method, node, e.getMessage(), e);
-                }
-                if (method.getParameterCount() > 0) {
-                    return method.invoke(null, node);
-                }
-                Object result = method.invoke(node);
-                if (result instanceof NodeType) {
-                    return ((NodeType) result).getName();
-                } else {
-                    return result;
-                }
-
-            } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-                // ignore
-                log.debug("Failed to invoke {} for {} with {}", method, node, e.getMessage(), e);
+                return property.read(node, config);
+            } catch (RepositoryException | RuntimeException e) {
+                // ignore, special properties are never worth failing the whole output
+                log.debug("Failed to read special property of {} with {}", node, e.getMessage(), e);
             }
             return null;
         }
@@ -777,8 +2486,8 @@ public class JsonBuilder implements Cloneable {
             String propTargetName = "jcr:uuid";
             if (propWorkspace == null) {
                 // multi expand
-                Optional<java.util.Map.Entry<String, MultiExpand>> propDescriptor = config.expandsMulti.entrySet().stream()
-                        .filter(entry -> expandableProperty.matches(entry.getKey()))
+                Optional<java.util.Map.Entry<Pattern, MultiExpand>> propDescriptor = config.patterns.expandsMulti.entrySet().stream()
+                        .filter(entry -> entry.getKey().matcher(expandableProperty).matches())
                         .findFirst();
                 if (!propDescriptor.isPresent()) {
                     return expanded;
@@ -813,34 +2522,32 @@ public class JsonBuilder implements Cloneable {
             if (expandable == null) {
                 return null;
             }
+            config.cost.recordExpansion();
+            long start = System.nanoTime();
             Node expandedNode;
             try {
                 if (targetName.equals("jcr:uuid")) {
-                    Session session = getJCRSession(workspace);
                     if (expandable.startsWith("jcr:")) {
                         expandable = StringUtils.removeStart(expandable, "jcr:");
                     }
-                    if (expandable.startsWith("/")) {
-                        expandedNode = session.getNode(expandable);
-                    } else {
-                        expandedNode = session.getNodeByIdentifier(expandable);
-                    }
+                    expandedNode = config.expansions.getNode(workspace, expandable);
                     if (config.allowDeleted || isNotDeleted(expandedNode)) {
-                        return mapToECMap(expandedNode, expandableProperty, config);
+                        return mapToECMap(expandedNode, workspace, expandableProperty);
                     } else {
                         return null;
                     }
                 } else {
                     String statement = "select * from [nt:base] where contains(" + escapeForQuery(targetName) + ",'" + escapeForQuery(expandable) + "')";
-                    NodeIterator results = search(workspace, statement);
-                    return asNodeStream(results)
+                    return config.expansions.search(workspace, statement).stream()
                             .filter(node -> config.allowDeleted || isNotDeleted(node))
-                            .map(expanded -> mapToECMap(expanded, expandableProperty, config))
+                            .map(expanded -> mapToECMap(expanded, workspace, expandableProperty))
                             .collect(Collectors.toList());
                 }
             } catch (RepositoryException e) {
                 log.debug(e.getMessage(), e);
                 return null;
+            } finally {
+                config.cost.recordExpandTime(System.nanoTime() - start);
             }
         }
 
@@ -857,32 +2564,26 @@ public class JsonBuilder implements Cloneable {
             return string.replaceAll("'", "''");
         }
 
-        private EntryableContentMap mapToECMap(Node expandedNode, String expandableProperty, JsonBuilder config) {
-            JsonBuilder builder = config.clone();
-            if (builder.wrapForI18n) {
+        private EntryableContentMap mapToECMap(Node expandedNode, String workspace, String expandableProperty) {
+            if (config.wrapForI18n) {
                 expandedNode = new I18nNodeWrapper(expandedNode);
             }
-            builder.setNode(expandedNode);
+            int expandedDepth = totalDepth;
+            String expansionKey = null;
             try {
                 // reset total depth in respect to current depth and position of the expanded node in its own hierarchy
-                builder.totalDepth = config.totalDepth - config.node.getDepth() + expandedNode.getDepth() - 1;
+                expandedDepth = totalDepth - getJCRNode().getDepth() + expandedNode.getDepth() - 1;
+                expansionKey = workspace + ":" + expandedNode.getIdentifier() + ":" + expandableProperty + ":" + expandedDepth;
             } catch (RepositoryException e) {
                 log.debug("Failed to restrict depth of expanded node [" + expandedNode + "] for property [" + expandableProperty + "] with: " + e.getMessage());
             }
-            builder.setReferencingPropertyName(expandableProperty);
-            return new EntryableContentMap(builder);
-
-        }
-
-        private boolean matchesRegex(String test, Collection<String> regexList) {
-            return !regexList.stream().noneMatch(test::matches);
+            EntryableContentMap map = new EntryableContentMap(config, expandedNode, expandableProperty, expandedDepth);
+            map.expansionKey = expansionKey;
+            return map;
         }
 
-        private Stream<String> getAllMatchedRegex(String test, Collection<String> regexList) {
-            if (test == null) {
-                return Stream.empty();
-            }
-            return regexList.stream().filter(test::matches);
+        private boolean matchesRegex(String test, Collection<Pattern> patterns) {
+            return patterns.stream().anyMatch(pattern -> pattern.matcher(test).matches());
         }
     }
 
@@ -0,0 +1,387 @@
+/**
+ * This file Copyright (c) 2026 Magnolia International
+ * Ltd.  (http://www.magnolia-cms.com). All rights reserved.
+ *
+ *
+ * This file is dual-licensed under both the Magnolia
+ * Network Agreement and the GNU General Public License.
+ * You may elect to use one or the other of these licenses.
+ *
+ * This file is distributed in the hope that it will be
+ * useful, but AS-IS and WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE, TITLE, or NONINFRINGEMENT.
+ * Redistribution, except as permitted by whichever of the GPL
+ * or MNA you select, is prohibited.
+ *
+ * 1. For the GPL license (GPL), you can redistribute and/or
+ * modify this file under the terms of the GNU General
+ * Public License, Version 3, as published by the Free Software
+ * Foundation.  You should have received a copy of the GNU
+ * General Public License, Version 3 along with this program;
+ * if not, write to the Free Software Foundation, Inc., 51
+ * Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * 2. For the Magnolia Network Agreement (MNA), this file
+ * and the accompanying materials are made available under the
+ * terms of the MNA which accompanies this distribution, and
+ * is available at http://www.magnolia-cms.com/mna.html
+ *
+ * Any modifications to this file must keep this entire header
+ * intact.
+ *
+ */
+package info.magnolia.templating.jsonfn;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Builder chain configured in jsonfn module config under <code>builders/&lt;name&gt;</code>. Each property mirrors the {@link JsonBuilder} method of the same name, e.g.
+ *
+ * <pre>
+ * builders
+ *   newsFeed
+ *     add (values: title, date)
+ *     exclude (values: jcr:.*)
+ *     expand
+ *       0 (property: categories, workspace: category)
+ *     down: 2
+ *     inline: true
+ * </pre>
+ *
+ * Definitions are compiled once when the module starts and are used in templates as <code>jsonfn.named("newsFeed").from(content).print()</code>.
+ */
+public class JsonBuilderDefinition {
+
+    private static final ObjectReader JSON_READER = new ObjectMapper().reader();
+
+    private List<String> add = new ArrayList<>();
+    private List<String> exclude = new ArrayList<>();
+    private List<Expand> expand = new ArrayList<>();
+    private List<String> binaryLinkRendition = new ArrayList<>();
+    private List<Mapping> maskChar = new ArrayList<>();
+    private List<Mapping> renameKey = new ArrayList<>();
+    private List<Mapping> childrenAsArray = new ArrayList<>();
+    private List<Mapping> insertCustom = new ArrayList<>();
+    private String readNodeTypes;
+    private String allowOnlyNodeTypes;
+    private int down;
+    private boolean inline;
+    private boolean wrapForI18n;
+    private boolean escapeBackslash;
+    private boolean allowDeleted;
+    private boolean cached;
+    private boolean prefetch;
+    private boolean parallel;
+
+    /**
+     * Applies configured chain of operations to given builder and compiles it.
+     *
+     * @param name
+     *            name of this definition to report problems with.
+     * @throws IllegalArgumentException
+     *             when definition is not complete, any of its regular expressions is not valid or any of its custom inserts is not valid json.
+     */
+    FrozenJsonBuilder compile(String name, JsonBuilder builder) {
+        try {
+            return applyTo(builder).freeze();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Jsonfn builder definition '" + name + "' is not valid: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Applies configured chain of operations to given builder.
+     */
+    private JsonBuilder applyTo(JsonBuilder builder) {
+        builder.add(add.toArray(new String[0]));
+        builder.exclude(exclude.toArray(new String[0]));
+        expand.forEach(it -> {
+            if (StringUtils.isBlank(it.getProperty()) || StringUtils.isBlank(it.getWorkspace())) {
+                throw new IllegalArgumentException("Expand requires both property and workspace.");
+            }
+            if (StringUtils.isBlank(it.getTargetProperty())) {
+                builder.expand(it.getProperty(), it.getWorkspace());
+            } else {
+                builder.expand(it.getProperty(), it.getWorkspace(), it.getTargetProperty());
+            }
+        });
+        builder.binaryLinkRendition(binaryLinkRendition.toArray(new String[0]));
+        maskChar.forEach(it -> {
+            if (StringUtils.length(it.getKey()) != 1 || StringUtils.length(it.getValue()) != 1) {
+                throw new IllegalArgumentException("Mask requires single character key and value, but got '" + it.getKey() + "' and '" + it.getValue() + "'.");
+            }
+            builder.maskChar(it.getKey().charAt(0), it.getValue().charAt(0));
+        });
+        renameKey.forEach(it -> {
+            requireKey("renameKey", it);
+            builder.renameKey(it.getKey(), StringUtils.defaultString(it.getValue()));
+        });
+        childrenAsArray.forEach(it -> {
+            requireKeyAndValue("childrenAsArray", it);
+            builder.childrenAsArray(it.getKey(), it.getValue());
+        });
+        insertCustom.forEach(it -> {
+            requireKeyAndValue("insertCustom", it);
+            try {
+                // the builder ignores invalid json, definitions are rather reported
+                JSON_READER.readTree(it.getValue());
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Custom insert of '" + it.getKey() + "' is not valid json: " + e.getMessage(), e);
+            }
+            builder.insertCustom(it.getKey(), it.getValue());
+        });
+        if (readNodeTypes != null) {
+            builder.readNodeTypes(readNodeTypes);
+        }
+        if (allowOnlyNodeTypes != null) {
+            builder.allowOnlyNodeTypes(allowOnlyNodeTypes);
+        }
+        builder.down(down);
+        if (inline) {
+            builder.inline();
+        }
+        if (wrapForI18n) {
+            builder.wrapForI18n();
+        }
+        if (escapeBackslash) {
+            builder.escapeBackslash();
+        }
+        if (allowDeleted) {
+            builder.allowDeleted();
+        }
+        if (cached) {
+            builder.cached();
+        }
+        if (prefetch) {
+            builder.prefetch();
+        }
+        if (parallel) {
+            builder.parallel();
+        }
+        return builder;
+    }
+
+    private static void requireKey(String operation, Mapping mapping) {
+        if (StringUtils.isBlank(mapping.getKey())) {
+            throw new IllegalArgumentException(StringUtils.capitalize(operation) + " requires key, but got value '" + mapping.getValue() + "' only.");
+        }
+    }
+
+    private static void requireKeyAndValue(String operation, Mapping mapping) {
+        requireKey(operation, mapping);
+        if (StringUtils.isBlank(mapping.getValue())) {
+            throw new IllegalArgumentException(StringUtils.capitalize(operation) + " requires value for key '" + mapping.getKey() + "'.");
+        }
+    }
+
+    public List<String> getAdd() {
+        return add;
+    }
+
+    public void setAdd(List<String> add) {
+        this.add = add;
+    }
+
+    public List<String> getExclude() {
+        return exclude;
+    }
+
+    public void setExclude(List<String> exclude) {
+        this.exclude = exclude;
+    }
+
+    public List<Expand> getExpand() {
+        return expand;
+    }
+
+    public void setExpand(List<Expand> expand) {
+        this.expand = expand;
+    }
+
+    public List<String> getBinaryLinkRendition() {
+        return binaryLinkRendition;
+    }
+
+    public void setBinaryLinkRendition(List<String> binaryLinkRendition) {
+        this.binaryLinkRendition = binaryLinkRendition;
+    }
+
+    public List<Mapping> getMaskChar() {
+        return maskChar;
+    }
+
+    public void setMaskChar(List<Mapping> maskChar) {
+        this.maskChar = maskChar;
+    }
+
+    public List<Mapping> getRenameKey() {
+        return renameKey;
+    }
+
+    public void setRenameKey(List<Mapping> renameKey) {
+        this.renameKey = renameKey;
+    }
+
+    public List<Mapping> getChildrenAsArray() {
+        return childrenAsArray;
+    }
+
+    public void setChildrenAsArray(List<Mapping> childrenAsArray) {
+        this.childrenAsArray = childrenAsArray;
+    }
+
+    public List<Mapping> getInsertCustom() {
+        return insertCustom;
+    }
+
+    public void setInsertCustom(List<Mapping> insertCustom) {
+        this.insertCustom = insertCustom;
+    }
+
+    public String getReadNodeTypes() {
+        return readNodeTypes;
+    }
+
+    public void setReadNodeTypes(String readNodeTypes) {
+        this.readNodeTypes = readNodeTypes;
+    }
+
+    public String getAllowOnlyNodeTypes() {
+        return allowOnlyNodeTypes;
+    }
+
+    public void setAllowOnlyNodeTypes(String allowOnlyNodeTypes) {
+        this.allowOnlyNodeTypes = allowOnlyNodeTypes;
+    }
+
+    public int getDown() {
+        return down;
+    }
+
+    public void setDown(int down) {
+        this.down = down;
+    }
+
+    public boolean isInline() {
+        return inline;
+    }
+
+    public void setInline(boolean inline) {
+        this.inline = inline;
+    }
+
+    public boolean isWrapForI18n() {
+        return wrapForI18n;
+    }
+
+    public void setWrapForI18n(boolean wrapForI18n) {
+        this.wrapForI18n = wrapForI18n;
+    }
+
+    public boolean isEscapeBackslash() {
+        return escapeBackslash;
+    }
+
+    public void setEscapeBackslash(boolean escapeBackslash) {
+        this.escapeBackslash = escapeBackslash;
+    }
+
+    public boolean isAllowDeleted() {
+        return allowDeleted;
+    }
+
+    public void setAllowDeleted(boolean allowDeleted) {
+        this.allowDeleted = allowDeleted;
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    public void setCached(boolean cached) {
+        this.cached = cached;
+    }
+
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Configuration of {@link JsonBuilder#expand(String, String)}, or of {@link JsonBuilder#expand(String, String, String)} when target property is set.
+     */
+    public static class Expand {
+
+        private String property;
+        private String workspace;
+        private String targetProperty;
+
+        public String getProperty() {
+            return property;
+        }
+
+        public void setProperty(String property) {
+            this.property = property;
+        }
+
+        public String getWorkspace() {
+            return workspace;
+        }
+
+        public void setWorkspace(String workspace) {
+            this.workspace = workspace;
+        }
+
+        public String getTargetProperty() {
+            return targetProperty;
+        }
+
+        public void setTargetProperty(String targetProperty) {
+            this.targetProperty = targetProperty;
+        }
+    }
+
+    /**
+     * Pair of arguments of two-argument builder methods such as {@link JsonBuilder#renameKey(String, String)}. Regular expressions are not valid JCR names, so they are configured as values rather than as property names.
+     */
+    public static class Mapping {
+
+        private String key;
+        private String value;
+
+        public String getKey() {
+            return key;
+        }
+
+        public void setKey(String key) {
+            this.key = key;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public void setValue(String value) {
+            this.value = value;
+        }
+    }
+}
@@ -38,6 +38,13 @@ import info.magnolia.dam.templating.functions.DamTemplatingFunctions;
 import info.magnolia.jcr.util.ContentMap;
 import info.magnolia.objectfactory.Components;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
@@ -47,6 +54,12 @@ import javax.jcr.RepositoryException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
 /**
  * Templating Functions to expose json builder.
  */
@@ -58,6 +71,21 @@ public class JsonTemplatingFunctions {
     private final Provider<Context> contextProvider;
     private final DamTemplatingFunctions damTemplatingFunctions;
 
+    // mapper and writers are thread safe and expensive to build, so all builders share them along with their serializer caches
+    private final ObjectMapper mapper = createObjectMapper();
+    private final ObjectWriter prettyWriter = mapper.writer().withDefaultPrettyPrinter();
+    private final ObjectWriter compactWriter = mapper.writer();
+
+    private final RenderCache renderCache = new RenderCache();
+
+    private final PropertySerializers propertySerializers = new PropertySerializers();
+
+    private final RenderMetrics renderMetrics = new RenderMetrics();
+
+    private volatile Map<String, FrozenJsonBuilder> namedBuilders = Collections.emptyMap();
+
+    private volatile ThreadPoolExecutor parallelExecutor;
+
     @Inject
     public JsonTemplatingFunctions(final Provider<Context> contextProvider, final DamTemplatingFunctions damTemplatingFunctions) {
         this.contextProvider = contextProvider;
@@ -72,6 +100,82 @@ public class JsonTemplatingFunctions {
         this(() -> Components.getComponent(Context.class), Components.getComponent(DamTemplatingFunctions.class));
     }
 
+    static ObjectMapper createObjectMapper() {
+        JsonFactory factory = JsonFactory.builder()
+                // reuse generator buffers between renders of the same thread
+                .enable(JsonFactory.Feature.USE_THREAD_LOCAL_FOR_BUFFER_RECYCLING)
+                // streams are owned by the callers of JsonBuilder.printTo()
+                .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+                .build();
+        return new ObjectMapper(factory)
+                .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    JsonBuilder newBuilder() {
+        JsonBuilder jsonBuilder = new JsonBuilder(damTemplatingFunctions, mapper, prettyWriter, compactWriter);
+        jsonBuilder.setRenderCache(renderCache);
+        jsonBuilder.setPropertySerializers(propertySerializers);
+        jsonBuilder.setRenderMetrics(renderMetrics);
+        jsonBuilder.setContextProvider(contextProvider);
+        jsonBuilder.setParallelExecutor(this::getParallelExecutor);
+        return jsonBuilder;
+    }
+
+    /**
+     * Cache shared by all builders marked as {@link JsonBuilder#cached()}.
+     */
+    public RenderCache getRenderCache() {
+        return renderCache;
+    }
+
+    /**
+     * Serializers used by all builders to write property values, register custom ones here. Registered serializers apply to every builder, not only to those of the template registering them.
+     */
+    public PropertySerializers getPropertySerializers() {
+        return propertySerializers;
+    }
+
+    /**
+     * Counters of renders done by all builders.
+     */
+    public RenderMetrics getRenderMetrics() {
+        return renderMetrics;
+    }
+
+    /**
+     * Executor rendering batches of {@link JsonBuilder#parallel()} builders, null while {@link JsonfnModule} doesn't run.
+     */
+    ThreadPoolExecutor getParallelExecutor() {
+        return parallelExecutor;
+    }
+
+    /**
+     * Set by {@link JsonfnModule}, which owns the executor and shuts it down when it stops.
+     */
+    void setParallelExecutor(ThreadPoolExecutor parallelExecutor) {
+        this.parallelExecutor = parallelExecutor;
+    }
+
+    /**
+     * Replaces all named builders at once, called by {@link JsonfnModule} each time it (re)starts.
+     */
+    void setNamedBuilders(Map<String, FrozenJsonBuilder> namedBuilders) {
+        this.namedBuilders = Collections.unmodifiableMap(namedBuilders);
+    }
+
+    /**
+     * Will use builder definition configured under given name in jsonfn module config. Definitions are compiled when the module starts, so call one of the source methods such as {@link FrozenJsonBuilder#from(Node)} to render it.
+     *
+     * @return the builder or null when no valid definition with given name exists.
+     */
+    public FrozenJsonBuilder named(String name) {
+        FrozenJsonBuilder builder = namedBuilders.get(name);
+        if (builder == null) {
+            log.warn("No valid jsonfn builder definition named '{}' is configured.", name);
+        }
+        return builder;
+    }
+
     /**
      * Will operate on passed in node.
      */
@@ -83,7 +187,7 @@ public class JsonTemplatingFunctions {
      * Will operate on passed in node.
      */
     public JsonBuilder from(Node node) {
-        JsonBuilder jsonBuilder = new JsonBuilder(damTemplatingFunctions);
+        JsonBuilder jsonBuilder = newBuilder();
         jsonBuilder.setNode(node);
         return jsonBuilder;
     }
@@ -112,12 +216,37 @@ public class JsonTemplatingFunctions {
      * Will skip current node, but iterate over all children of it instead.
      */
     public JsonBuilder fromChildNodesOf(Node node) {
-        JsonBuilder jsonBuilder = new JsonBuilder(damTemplatingFunctions);
+        JsonBuilder jsonBuilder = newBuilder();
         jsonBuilder.setNode(node);
         jsonBuilder.setChildrenOnly(true);
         return jsonBuilder;
     }
 
+    /**
+     * Will iterate over nodes found by given JCR-SQL2 statement in given workspace and render each of them as if passed to {@link #from(Node)}, all into single array.
+     *
+     * @param limit
+     *            max number of nodes to render, 0 for all of them.
+     * @param offset
+     *            number of found nodes to skip.
+     */
+    public JsonBuilder fromQuery(String workspace, String statement, long limit, long offset) {
+        return fromQuery(workspace, statement, limit, offset, Collections.emptyMap());
+    }
+
+    /**
+     * Will iterate over nodes found by given JCR-SQL2 statement in given workspace, with bind variables of the statement (e.g. <code>$tag</code>) set to provided values.
+     *
+     * @see #fromQuery(String, String, long, long)
+     */
+    public JsonBuilder fromQuery(String workspace, String statement, long limit, long offset, Map<String, Object> bindValues) {
+        JsonBuilder jsonBuilder = fromChildNodesOf(workspace);
+        if (jsonBuilder != null) {
+            jsonBuilder.setQuery(statement, limit, offset, bindValues);
+        }
+        return jsonBuilder;
+    }
+
     /**
      * Will operate on passed in node and append output to provided json.
      */
@@ -129,10 +258,40 @@ public class JsonTemplatingFunctions {
      * Will operate on passed in node.
      */
     public JsonBuilder appendFrom(String json, Node node) {
-        JsonBuilder jsonBuilder = new JsonBuilder(damTemplatingFunctions);
+        JsonBuilder jsonBuilder = newBuilder();
         jsonBuilder.setNode(node);
         jsonBuilder.setJson(json);
         return jsonBuilder;
     }
 
+    /**
+     * Will operate on all passed in nodes (or content maps) and append output of each of them to provided json, so that many sources are aggregated in single array without rendering the json over and over again. With {@link JsonBuilder#allowOnlyNodeTypes(String)}, matching nodes of all of them are listed, and {@link JsonBuilder#exportTo(java.io.Writer)} exports all of them too.
+     *
+     * @throws IllegalArgumentException
+     *             when there are no nodes or any of them is neither node nor content map.
+     */
+    public JsonBuilder appendFrom(String json, Collection<?> contents) {
+        List<Node> nodes = toNodes(contents);
+        JsonBuilder jsonBuilder = appendFrom(json, nodes.get(0));
+        jsonBuilder.setAppendedNodes(nodes.subList(1, nodes.size()));
+        return jsonBuilder;
+    }
+
+    static List<Node> toNodes(Collection<?> contents) {
+        List<Node> nodes = new ArrayList<>();
+        for (Object content : contents) {
+            if (content instanceof ContentMap) {
+                nodes.add(((ContentMap) content).getJCRNode());
+            } else if (content instanceof Node) {
+                nodes.add((Node) content);
+            } else {
+                throw new IllegalArgumentException("Expected node or content map but got " + content);
+            }
+        }
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("No nodes to render.");
+        }
+        return nodes;
+    }
+
 }
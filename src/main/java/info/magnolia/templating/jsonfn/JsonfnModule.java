@@ -0,0 +1,199 @@
+/**
+ * This file Copyright (c) 2026 Magnolia International
+ * Ltd.  (http://www.magnolia-cms.com). All rights reserved.
+ *
+ *
+ * This file is dual-licensed under both the Magnolia
+ * Network Agreement and the GNU General Public License.
+ * You may elect to use one or the other of these licenses.
+ *
+ * This file is distributed in the hope that it will be
+ * useful, but AS-IS and WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE, TITLE, or NONINFRINGEMENT.
+ * Redistribution, except as permitted by whichever of the GPL
+ * or MNA you select, is prohibited.
+ *
+ * 1. For the GPL license (GPL), you can redistribute and/or
+ * modify this file under the terms of the GNU General
+ * Public License, Version 3, as published by the Free Software
+ * Foundation.  You should have received a copy of the GNU
+ * General Public License, Version 3 along with this program;
+ * if not, write to the Free Software Foundation, Inc., 51
+ * Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * 2. For the Magnolia Network Agreement (MNA), this file
+ * and the accompanying materials are made available under the
+ * terms of the MNA which accompanies this distribution, and
+ * is available at http://www.magnolia-cms.com/mna.html
+ *
+ * Any modifications to this file must keep this entire header
+ * intact.
+ *
+ */
+package info.magnolia.templating.jsonfn;
+
+import info.magnolia.module.ModuleLifecycle;
+import info.magnolia.module.ModuleLifecycleContext;
+import info.magnolia.objectfactory.Components;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Jsonfn module class. Compiles builder definitions configured under <code>/modules/jsonfn/config/builders</code> on each (re)start of the module and makes them available via {@link JsonTemplatingFunctions#named(String)}. Registers {@link RenderMetrics} in the platform MBean server and runs the threads of {@link JsonBuilder#parallel()} renders while the module runs.
+ */
+public class JsonfnModule implements ModuleLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonfnModule.class);
+
+    // batches waiting for a thread, per thread, before further batches are rendered by the threads submitting them
+    private static final int PARALLEL_QUEUE_PER_THREAD = 4;
+
+    private Map<String, JsonBuilderDefinition> builders = new LinkedHashMap<>();
+    private int renderCacheSize = RenderCache.DEFAULT_MAX_SIZE;
+    private long renderCacheMaxChars = RenderCache.DEFAULT_MAX_CHARS;
+    private long slowRenderThreshold = RenderMetrics.DEFAULT_SLOW_RENDER_THRESHOLD;
+    private int parallelRenderThreads = Runtime.getRuntime().availableProcessors();
+
+    @Override
+    public void start(ModuleLifecycleContext moduleLifecycleContext) {
+        JsonTemplatingFunctions jsonfn = Components.getComponent(JsonTemplatingFunctions.class);
+        jsonfn.getRenderCache().setMaxSize(renderCacheSize);
+        jsonfn.getRenderCache().setMaxChars(renderCacheMaxChars);
+        jsonfn.getRenderMetrics().setSlowRenderThreshold(slowRenderThreshold);
+        Map<String, FrozenJsonBuilder> compiled = new LinkedHashMap<>();
+        builders.forEach((name, definition) -> {
+            try {
+                compiled.put(name, definition.compile(name, jsonfn.newBuilder()));
+            } catch (IllegalArgumentException e) {
+                // PatternSyntaxException is IllegalArgumentException as well
+                log.error("{} It will not be available.", e.getMessage());
+            }
+        });
+        jsonfn.setNamedBuilders(compiled);
+        log.info("Compiled {} of {} jsonfn builder definitions.", compiled.size(), builders.size());
+        registerRenderMetrics(jsonfn.getRenderMetrics());
+        // still running when the module was restarted without being stopped
+        stopParallelExecutor(jsonfn);
+        if (parallelRenderThreads > 0) {
+            jsonfn.setParallelExecutor(createParallelExecutor(parallelRenderThreads));
+        }
+    }
+
+    @Override
+    public void stop(ModuleLifecycleContext moduleLifecycleContext) {
+        // definitions are replaced on next start, cached output might be produced by definitions that are about to change
+        JsonTemplatingFunctions jsonfn = Components.getComponent(JsonTemplatingFunctions.class);
+        jsonfn.getRenderCache().clear();
+        unregisterRenderMetrics();
+        stopParallelExecutor(jsonfn);
+    }
+
+    private static ThreadPoolExecutor createParallelExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(threads * PARALLEL_QUEUE_PER_THREAD), task -> {
+            Thread thread = new Thread(task, "jsonfn-parallel-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (task, pool) -> {
+            // renders wait for all of their batches, so batches not fitting the queue (or submitted while the module stops) are rendered by the submitting thread rather than dropped
+            task.run();
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static void stopParallelExecutor(JsonTemplatingFunctions jsonfn) {
+        ThreadPoolExecutor executor = jsonfn.getParallelExecutor();
+        jsonfn.setParallelExecutor(null);
+        if (executor != null) {
+            // batches already submitted are still rendered, renders waiting for them are not cut short
+            executor.shutdown();
+        }
+    }
+
+    private void registerRenderMetrics(RenderMetrics renderMetrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(RenderMetrics.OBJECT_NAME);
+            // still registered when the module was restarted without being stopped
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(renderMetrics, name);
+        } catch (JMException e) {
+            log.warn("Failed to register jsonfn render metrics in JMX: {}", e.getMessage(), e);
+        }
+    }
+
+    private void unregisterRenderMetrics() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(RenderMetrics.OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.warn("Failed to unregister jsonfn render metrics from JMX: {}", e.getMessage(), e);
+        }
+    }
+
+    public Map<String, JsonBuilderDefinition> getBuilders() {
+        return builders;
+    }
+
+    public void setBuilders(Map<String, JsonBuilderDefinition> builders) {
+        this.builders = builders;
+    }
+
+    public int getRenderCacheSize() {
+        return renderCacheSize;
+    }
+
+    public void setRenderCacheSize(int renderCacheSize) {
+        this.renderCacheSize = renderCacheSize;
+    }
+
+    public long getRenderCacheMaxChars() {
+        return renderCacheMaxChars;
+    }
+
+    public void setRenderCacheMaxChars(long renderCacheMaxChars) {
+        this.renderCacheMaxChars = renderCacheMaxChars;
+    }
+
+    /**
+     * Renders taking at least this many milliseconds are logged with their builder chain and costs, 0 disables the log.
+     */
+    public long getSlowRenderThreshold() {
+        return slowRenderThreshold;
+    }
+
+    public void setSlowRenderThreshold(long slowRenderThreshold) {
+        this.slowRenderThreshold = slowRenderThreshold;
+    }
+
+    /**
+     * Threads rendering batches of {@link JsonBuilder#parallel()} renders, shared by all of them. Defaults to number of available processors, 0 renders everything sequentially.
+     */
+    public int getParallelRenderThreads() {
+        return parallelRenderThreads;
+    }
+
+    public void setParallelRenderThreads(int parallelRenderThreads) {
+        this.parallelRenderThreads = parallelRenderThreads;
+    }
+}
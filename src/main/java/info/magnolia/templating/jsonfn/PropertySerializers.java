@@ -0,0 +1,126 @@
+/**
+ * This file Copyright (c) 2026 Magnolia International
+ * Ltd.  (http://www.magnolia-cms.com). All rights reserved.
+ *
+ *
+ * This file is dual-licensed under both the Magnolia
+ * Network Agreement and the GNU General Public License.
+ * You may elect to use one or the other of these licenses.
+ *
+ * This file is distributed in the hope that it will be
+ * useful, but AS-IS and WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE, TITLE, or NONINFRINGEMENT.
+ * Redistribution, except as permitted by whichever of the GPL
+ * or MNA you select, is prohibited.
+ *
+ * 1. For the GPL license (GPL), you can redistribute and/or
+ * modify this file under the terms of the GNU General
+ * Public License, Version 3, as published by the Free Software
+ * Foundation.  You should have received a copy of the GNU
+ * General Public License, Version 3 along with this program;
+ * if not, write to the Free Software Foundation, Inc., 51
+ * Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * 2. For the Magnolia Network Agreement (MNA), this file
+ * and the accompanying materials are made available under the
+ * terms of the MNA which accompanies this distribution, and
+ * is available at http://www.magnolia-cms.com/mna.html
+ *
+ * Any modifications to this file must keep this entire header
+ * intact.
+ *
+ */
+package info.magnolia.templating.jsonfn;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Calendar;
+
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Registry of serializers writing values of JCR properties straight to the json output by their {@link PropertyType}, so values are neither read twice nor converted to objects Jackson needs to introspect. Serializers of custom types (or replacements of the default ones) should be registered before rendering, since {@link JsonBuilder#cached() cached} output is not invalidated by changes of the registry.
+ */
+public class PropertySerializers {
+
+    /**
+     * Writes single JCR value to the output.
+     */
+    public interface Serializer {
+
+        void serialize(Value value, JsonGenerator generator) throws IOException, RepositoryException;
+    }
+
+    // formatter is thread safe, so one instance serves all renders
+    private static final DateTimeFormatter ISO_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+
+    public static final Serializer STRING = (value, generator) -> generator.writeString(value.getString());
+
+    public static final Serializer LONG = (value, generator) -> generator.writeNumber(value.getLong());
+
+    public static final Serializer DOUBLE = (value, generator) -> generator.writeNumber(value.getDouble());
+
+    public static final Serializer DECIMAL = (value, generator) -> generator.writeNumber(value.getDecimal());
+
+    public static final Serializer BOOLEAN = (value, generator) -> generator.writeBoolean(value.getBoolean());
+
+    /**
+     * Writes dates as milliseconds since the epoch, same as Jackson does by default.
+     */
+    public static final Serializer TIMESTAMP = (value, generator) -> generator.writeNumber(value.getDate().getTimeInMillis());
+
+    /**
+     * Writes dates as ISO-8601 strings keeping time zone offset of the value, e.g. <code>2026-10-17T10:15:30.000+02:00</code>.
+     */
+    public static final Serializer ISO_DATE = (value, generator) -> {
+        Calendar date = value.getDate();
+        generator.writeString(ISO_FORMAT.format(ZonedDateTime.ofInstant(date.toInstant(), date.getTimeZone().toZoneId())));
+    };
+
+    // indexed by property type, replaced as a whole on registration to be safe for concurrent renders
+    private volatile Serializer[] serializers;
+
+    public PropertySerializers() {
+        Serializer[] defaults = new Serializer[PropertyType.DECIMAL + 1];
+        Arrays.fill(defaults, STRING);
+        defaults[PropertyType.LONG] = LONG;
+        defaults[PropertyType.DOUBLE] = DOUBLE;
+        defaults[PropertyType.DECIMAL] = DECIMAL;
+        defaults[PropertyType.BOOLEAN] = BOOLEAN;
+        defaults[PropertyType.DATE] = TIMESTAMP;
+        this.serializers = defaults;
+    }
+
+    /**
+     * Uses given serializer for all values of given type, e.g. <code>register(PropertyType.DATE, PropertySerializers.ISO_DATE)</code>. The registry is shared, so this changes the output of every builder created by the same {@link JsonTemplatingFunctions}, including those of other templates.
+     *
+     * @throws IllegalArgumentException
+     *             when type is not one of {@link PropertyType} constants.
+     */
+    public synchronized void register(int propertyType, Serializer serializer) {
+        // validates the type
+        PropertyType.nameFromValue(propertyType);
+        Serializer[] copy = Arrays.copyOf(serializers, serializers.length);
+        copy[propertyType] = serializer;
+        this.serializers = copy;
+    }
+
+    public Serializer get(int propertyType) {
+        Serializer[] current = serializers;
+        return propertyType >= 0 && propertyType < current.length ? current[propertyType] : STRING;
+    }
+
+    /**
+     * Writes given value with serializer registered for its type.
+     */
+    public void serialize(Value value, JsonGenerator generator) throws IOException, RepositoryException {
+        get(value.getType()).serialize(value, generator);
+    }
+}
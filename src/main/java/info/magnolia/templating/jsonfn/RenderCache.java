@@ -0,0 +1,277 @@
+/**
+ * This file Copyright (c) 2026 Magnolia International
+ * Ltd.  (http://www.magnolia-cms.com). All rights reserved.
+ *
+ *
+ * This file is dual-licensed under both the Magnolia
+ * Network Agreement and the GNU General Public License.
+ * You may elect to use one or the other of these licenses.
+ *
+ * This file is distributed in the hope that it will be
+ * useful, but AS-IS and WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE, TITLE, or NONINFRINGEMENT.
+ * Redistribution, except as permitted by whichever of the GPL
+ * or MNA you select, is prohibited.
+ *
+ * 1. For the GPL license (GPL), you can redistribute and/or
+ * modify this file under the terms of the GNU General
+ * Public License, Version 3, as published by the Free Software
+ * Foundation.  You should have received a copy of the GNU
+ * General Public License, Version 3 along with this program;
+ * if not, write to the Free Software Foundation, Inc., 51
+ * Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * 2. For the Magnolia Network Agreement (MNA), this file
+ * and the accompanying materials are made available under the
+ * terms of the MNA which accompanies this distribution, and
+ * is available at http://www.magnolia-cms.com/mna.html
+ *
+ * Any modifications to this file must keep this entire header
+ * intact.
+ *
+ */
+package info.magnolia.templating.jsonfn;
+
+import info.magnolia.cms.util.ObservationUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size bounded LRU cache of output produced by {@link JsonBuilder#print()} of builders marked as {@link JsonBuilder#cached()}. Size is bound by number of entries as well as by total length of cached output. Entries are evicted when JCR observation reports a change in the rendered subtree or anywhere in the workspaces the output was expanded from.
+ */
+public class RenderCache {
+
+    private static final Logger log = LoggerFactory.getLogger(RenderCache.class);
+
+    public static final int DEFAULT_MAX_SIZE = 500;
+
+    public static final long DEFAULT_MAX_CHARS = 50_000_000;
+
+    /**
+     * Produces output on cache miss.
+     */
+    interface Renderer {
+        String render() throws IOException;
+    }
+
+    private static class Entry {
+
+        private final String output;
+        private final String workspace;
+        private final String path;
+        private final Set<String> expandedWorkspaces;
+
+        private Entry(String output, String workspace, String path, Set<String> expandedWorkspaces) {
+            this.output = output;
+            this.workspace = workspace;
+            this.path = path;
+            this.expandedWorkspaces = expandedWorkspaces;
+        }
+
+        private boolean isAffectedBy(String changedWorkspace, List<String> changedPaths) {
+            if (expandedWorkspaces.contains(changedWorkspace)) {
+                return true;
+            }
+            return workspace.equals(changedWorkspace) && changedPaths.stream().anyMatch(this::isAffectedBy);
+        }
+
+        private boolean isAffectedBy(String changedPath) {
+            // change within rendered subtree, or move/removal of the subtree itself or of any of its parents
+            return isSameOrAncestor(path, changedPath) || isSameOrAncestor(changedPath, path);
+        }
+
+        private static boolean isSameOrAncestor(String ancestor, String path) {
+            return "/".equals(ancestor) || path.equals(ancestor) || path.startsWith(ancestor + "/");
+        }
+    }
+
+    // guarded by itself, as is the length of all cached output
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long chars;
+
+    private final Map<String, EventListener> listeners = new ConcurrentHashMap<>();
+    // bumped on each eviction from the workspace so that output rendered concurrently with a change is never stored, changes of other workspaces don't matter
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    // bumped when the whole cache is cleared
+    private final AtomicLong clears = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    private volatile long maxChars = DEFAULT_MAX_CHARS;
+
+    /**
+     * Returns cached output stored under given key or renders and stores new one.
+     *
+     * @param workspace
+     *            workspace of the rendered node.
+     * @param path
+     *            path of the rendered node.
+     * @param expandedWorkspaces
+     *            workspaces that expanded nodes are read from.
+     */
+    String get(String key, String workspace, String path, Set<String> expandedWorkspaces, Renderer renderer) throws IOException {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry.output;
+            }
+        }
+        misses.incrementAndGet();
+        // start observing before rendering, so no change can slip in between
+        observe(workspace);
+        expandedWorkspaces.forEach(this::observe);
+        long renderedGeneration = getGeneration(workspace, expandedWorkspaces);
+        String output = renderer.render();
+        synchronized (entries) {
+            if (renderedGeneration == getGeneration(workspace, expandedWorkspaces) && output.length() <= maxChars) {
+                remove(entries.put(key, new Entry(output, workspace, path, expandedWorkspaces)));
+                chars += output.length();
+                trim();
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Sum of generations of given workspaces and of the whole cache. Generations only grow, so the sum stays the same as long as none of them changes.
+     */
+    private long getGeneration(String workspace, Set<String> expandedWorkspaces) {
+        long generation = clears.get() + getGeneration(workspace).get();
+        for (String expandedWorkspace : expandedWorkspaces) {
+            generation += getGeneration(expandedWorkspace).get();
+        }
+        return generation;
+    }
+
+    private AtomicLong getGeneration(String workspace) {
+        return generations.computeIfAbsent(workspace, name -> new AtomicLong());
+    }
+
+    /**
+     * Accounts for removal of given entry, if any.
+     */
+    private void remove(Entry entry) {
+        if (entry != null) {
+            chars -= entry.output.length();
+        }
+    }
+
+    /**
+     * Drops least recently used entries until the cache fits into its bounds.
+     */
+    private void trim() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxSize || chars > maxChars) && iterator.hasNext()) {
+            remove(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private void observe(String workspace) {
+        listeners.computeIfAbsent(workspace, name -> {
+            EventListener listener = events -> evict(name, events);
+            ObservationUtil.registerChangeListener(name, "/", listener);
+            return listener;
+        });
+    }
+
+    private void evict(String workspace, EventIterator events) {
+        List<String> changedPaths = new ArrayList<>();
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                changedPaths.add(event.getPath());
+            } catch (RepositoryException e) {
+                log.debug("Failed to read path of {} event, evicting whole workspace {}", event.getType(), workspace, e);
+                changedPaths.add("/");
+            }
+        }
+        synchronized (entries) {
+            getGeneration(workspace).incrementAndGet();
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.isAffectedBy(workspace, changedPaths)) {
+                    remove(entry);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all entries and stops observing the repository.
+     */
+    public void clear() {
+        listeners.forEach(ObservationUtil::unregisterChangeListener);
+        listeners.clear();
+        synchronized (entries) {
+            clears.incrementAndGet();
+            entries.clear();
+            chars = 0;
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        synchronized (entries) {
+            trim();
+        }
+    }
+
+    public long getMaxChars() {
+        return maxChars;
+    }
+
+    /**
+     * Limits total length of cached output, output longer than that is not cached at all.
+     */
+    public void setMaxChars(long maxChars) {
+        this.maxChars = maxChars;
+        synchronized (entries) {
+            trim();
+        }
+    }
+
+    public long getChars() {
+        synchronized (entries) {
+            return chars;
+        }
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * This file Copyright (c) 2026 Magnolia International
+ * Ltd.  (http://www.magnolia-cms.com). All rights reserved.
+ *
+ *
+ * This file is dual-licensed under both the Magnolia
+ * Network Agreement and the GNU General Public License.
+ * You may elect to use one or the other of these licenses.
+ *
+ * This file is distributed in the hope that it will be
+ * useful, but AS-IS and WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE, TITLE, or NONINFRINGEMENT.
+ * Redistribution, except as permitted by whichever of the GPL
+ * or MNA you select, is prohibited.
+ *
+ * 1. For the GPL license (GPL), you can redistribute and/or
+ * modify this file under the terms of the GNU General
+ * Public License, Version 3, as published by the Free Software
+ * Foundation.  You should have received a copy of the GNU
+ * General Public License, Version 3 along with this program;
+ * if not, write to the Free Software Foundation, Inc., 51
+ * Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * 2. For the Magnolia Network Agreement (MNA), this file
+ * and the accompanying materials are made available under the
+ * terms of the MNA which accompanies this distribution, and
+ * is available at http://www.magnolia-cms.com/mna.html
+ *
+ * Any modifications to this file must keep this entire header
+ * intact.
+ *
+ */
+package info.magnolia.templating.jsonfn;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters of renders done by {@link JsonBuilder}, broken down by the entry point builders were created by. Counters are updated by rendering threads without locking and exposed via JMX by {@link JsonfnModule}. Renders slower than {@link #getSlowRenderThreshold() threshold} are logged along with their builder chain and costs.
+ */
+public class RenderMetrics implements RenderMetricsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(RenderMetrics.class);
+
+    public static final String OBJECT_NAME = "info.magnolia.templating.jsonfn:type=RenderMetrics";
+
+    public static final long DEFAULT_SLOW_RENDER_THRESHOLD = 1000;
+
+    private static final long[] LATENCY_BUCKETS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    /**
+     * Methods of {@link JsonTemplatingFunctions} (and {@link FrozenJsonBuilder}) builders are created by.
+     */
+    public enum EntryPoint {
+        FROM("from"),
+        FROM_CHILD_NODES_OF("fromChildNodesOf"),
+        FROM_QUERY("fromQuery"),
+        APPEND_FROM("appendFrom");
+
+        private final String methodName;
+
+        EntryPoint(String methodName) {
+            this.methodName = methodName;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+    }
+
+    /**
+     * Costs of a single render, shared by all threads rendering it.
+     */
+    static class Cost {
+
+        private final EntryPoint entryPoint;
+        private final long start = System.nanoTime();
+        private final LongAdder nodes = new LongAdder();
+        private final LongAdder properties = new LongAdder();
+        private final LongAdder expansions = new LongAdder();
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder sourceNanos = new LongAdder();
+        private final LongAdder prefetchNanos = new LongAdder();
+        private final LongAdder expandNanos = new LongAdder();
+
+        private Cost(EntryPoint entryPoint) {
+            this.entryPoint = entryPoint;
+        }
+
+        void recordNode() {
+            nodes.increment();
+        }
+
+        void recordProperties(int count) {
+            properties.add(count);
+        }
+
+        void recordExpansion() {
+            expansions.increment();
+        }
+
+        void recordQuery() {
+            queries.increment();
+        }
+
+        /**
+         * Time spent reading child nodes or query results to render.
+         */
+        void recordSourceTime(long nanos) {
+            sourceNanos.add(nanos);
+        }
+
+        /**
+         * Time spent prefetching referenced nodes.
+         */
+        void recordPrefetchTime(long nanos) {
+            prefetchNanos.add(nanos);
+        }
+
+        /**
+         * Time spent looking up and searching expanded nodes.
+         */
+        void recordExpandTime(long nanos) {
+            expandNanos.add(nanos);
+        }
+
+        private String describe(long nanos, long outputSize) {
+            long source = sourceNanos.sum();
+            long prefetch = prefetchNanos.sum();
+            long expand = expandNanos.sum();
+            // times of parallel workers add up, so they might exceed the time of the whole render
+            long write = Math.max(0, nanos - source - prefetch - expand);
+            return String.format("nodes: %d, properties: %d, expansions: %d, queries: %d, output: %s; source: %d ms, prefetch: %d ms, expand: %d ms, write: %d ms",
+                    nodes.sum(), properties.sum(), expansions.sum(), queries.sum(), outputSize < 0 ? "failed" : outputSize,
+                    toMillis(source), toMillis(prefetch), toMillis(expand), toMillis(write));
+        }
+    }
+
+    /**
+     * Counters of single entry point. Costs of renders are added when the renders finish.
+     */
+    public static class Stats {
+
+        private final LongAdder renders = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS_MILLIS.length + 1);
+        private final LongAdder nodes = new LongAdder();
+        private final LongAdder properties = new LongAdder();
+        private final LongAdder expansions = new LongAdder();
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder outputSize = new LongAdder();
+
+        private void record(Cost cost, long nanos, long outputSize) {
+            if (outputSize < 0) {
+                failures.increment();
+            } else {
+                renders.increment();
+                this.outputSize.add(outputSize);
+            }
+            this.nanos.add(nanos);
+            int bucket = Arrays.binarySearch(LATENCY_BUCKETS_MILLIS, toMillis(nanos));
+            latencies.incrementAndGet(bucket < 0 ? -bucket - 1 : bucket);
+            nodes.add(cost.nodes.sum());
+            properties.add(cost.properties.sum());
+            expansions.add(cost.expansions.sum());
+            queries.add(cost.queries.sum());
+        }
+
+        public long getRenderCount() {
+            return renders.sum();
+        }
+
+        public long getFailureCount() {
+            return failures.sum();
+        }
+
+        public long getTotalTimeMillis() {
+            return toMillis(nanos.sum());
+        }
+
+        /**
+         * Number of renders (failed ones included) per bucket of {@link RenderMetricsMXBean#getLatencyBucketsMillis()}.
+         */
+        public long[] getLatencyHistogram() {
+            long[] histogram = new long[latencies.length()];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = latencies.get(i);
+            }
+            return histogram;
+        }
+
+        public long getNodeCount() {
+            return nodes.sum();
+        }
+
+        public long getPropertyCount() {
+            return properties.sum();
+        }
+
+        public long getExpansionCount() {
+            return expansions.sum();
+        }
+
+        public long getQueryCount() {
+            return queries.sum();
+        }
+
+        public long getOutputSize() {
+            return outputSize.sum();
+        }
+    }
+
+    // never modified after construction, safe to read concurrently
+    private final Map<EntryPoint, Stats> stats = new EnumMap<>(EntryPoint.class);
+    private volatile long slowRenderThreshold = DEFAULT_SLOW_RENDER_THRESHOLD;
+
+    public RenderMetrics() {
+        for (EntryPoint entryPoint : EntryPoint.values()) {
+            stats.put(entryPoint, new Stats());
+        }
+    }
+
+    public Stats get(EntryPoint entryPoint) {
+        return stats.get(entryPoint);
+    }
+
+    /**
+     * Starts measuring costs of a render.
+     */
+    Cost start(EntryPoint entryPoint) {
+        return new Cost(entryPoint);
+    }
+
+    /**
+     * Adds costs of finished render to counters of its entry point and logs the render when it was slow.
+     *
+     * @param outputSize
+     *            characters written (bytes when written to a stream), negative when rendering failed.
+     * @param builderChain
+     *            description of the builder, only resolved when the render is logged.
+     */
+    void finish(Cost cost, long outputSize, Supplier<String> builderChain) {
+        long nanos = System.nanoTime() - cost.start;
+        stats.get(cost.entryPoint).record(cost, nanos, outputSize);
+        long millis = toMillis(nanos);
+        long threshold = slowRenderThreshold;
+        if (threshold > 0 && millis >= threshold) {
+            log.warn("Slow jsonfn render took {} ms: {}; {}", millis, builderChain.get(), cost.describe(nanos, outputSize));
+        }
+    }
+
+    @Override
+    public Map<String, Stats> getEntryPoints() {
+        Map<String, Stats> entryPoints = new LinkedHashMap<>();
+        stats.forEach((entryPoint, entryPointStats) -> entryPoints.put(entryPoint.getMethodName(), entryPointStats));
+        return entryPoints;
+    }
+
+    @Override
+    public long[] getLatencyBucketsMillis() {
+        return LATENCY_BUCKETS_MILLIS.clone();
+    }
+
+    @Override
+    public long getSlowRenderThreshold() {
+        return slowRenderThreshold;
+    }
+
+    @Override
+    public void setSlowRenderThreshold(long slowRenderThreshold) {
+        this.slowRenderThreshold = slowRenderThreshold;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -36,7 +36,14 @@ package info.magnolia.templating.jsonfn;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import info.magnolia.cms.beans.config.URI2RepositoryManager;
@@ -48,6 +55,8 @@ import info.magnolia.dam.templating.functions.DamTemplatingFunctions;
 import info.magnolia.jcr.util.NodeTypeTemplateUtil;
 import info.magnolia.jcr.util.NodeTypes;
 import info.magnolia.jcr.util.PropertiesImportExport;
+import info.magnolia.jcr.wrapper.DelegateNodeWrapper;
+import info.magnolia.jcr.wrapper.DelegateSessionWrapper;
 import info.magnolia.jcr.wrapper.JCRMgnlPropertiesFilteringNodeWrapper;
 import info.magnolia.link.Link;
 import info.magnolia.objectfactory.Components;
@@ -57,14 +66,28 @@ import info.magnolia.repository.RepositoryManager;
 import info.magnolia.test.ComponentsTestUtil;
 import info.magnolia.test.RepositoryTestCase;
 
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.PatternSyntaxException;
+
+import javax.jcr.Credentials;
+import javax.jcr.LoginException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.nodetype.NodeType;
 import javax.jcr.nodetype.NodeTypeManager;
@@ -75,6 +98,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class JsonBuilderTest extends RepositoryTestCase {
@@ -277,6 +301,29 @@ public class JsonBuilderTest extends RepositoryTestCase {
         assertThat(json, endsWith("}"));
     }
 
+    /**
+     * jsonfn.from(content).expand("baz", "category").print()
+     *
+     * ==> { "baz" : [ {"@id" : "1234-123456-1234", "name" : "myCategory"}, {"@id" : "1234-123456-1234", "name" : "myCategory"}, ... ] }
+     */
+    @Test
+    public void testExpandSameNodeRepeatedly() throws Exception {
+        // GIVEN
+        Node node = session.getNode("/home/section2/article/mgnl:apex");
+        node.setProperty("baz", new String[]{catNode.getIdentifier(), catNode.getIdentifier(), catNode.getIdentifier()});
+
+        // WHEN
+        String json = templatingFunctions.from(node).expand("baz", "category").add("@id", "name").print();
+
+        // THEN
+        // first reference is written directly, second one recorded and third one replayed
+        JsonNode baz = new ObjectMapper().readTree(json).get("baz");
+        assertEquals(3, baz.size());
+        assertEquals("myCategory", baz.get(0).get("name").asText());
+        assertEquals(baz.get(0), baz.get(1));
+        assertEquals(baz.get(0), baz.get(2));
+    }
+
     /**
      * While some node id in expanded section points to a node that no longer exist, it should be silently ignored instead of leading to null in the results.
      * jsonfn.from(content).expand("baz", "category").print()
@@ -710,6 +757,46 @@ public class JsonBuilderTest extends RepositoryTestCase {
         assertThat(json, endsWith("}"));
     }
 
+    /**
+     * jsonfn.from(content).add("@name").renameKey("@name", "a\uFFFFb").maskChar('\uFFFF', '_').print()
+     *
+     * ==> { "a_b" : ... }
+     */
+    @Test
+    public void testMaskHighestChar() throws Exception {
+        // WHEN
+        String json = templatingFunctions.from(session.getNode("/home/section2/article/mgnl:apex")).add("@name").renameKey("@name", "a\uFFFFb").maskChar('\uFFFF', '_').print();
+
+        // THEN
+        assertThat(json, containsString("\"a_b\" : "));
+        assertThat(json, not(containsString("\uFFFF")));
+    }
+
+    /**
+     * jsonfn.from(content).add("@name").maskChar(':', '_').maskChar('_', '-').maskChar('x', ':').print()
+     *
+     * ==> masks are applied one after another, in order they were given
+     */
+    @Test
+    public void testMaskCharsComposed() throws Exception {
+        // GIVEN
+        String name = "a:b_c-dx\uFFFF";
+        char[][] masks = { { ':', '_' }, { '_', '-' }, { 'x', ':' }, { '\uFFFF', 'x' }, { 'd', 'd' } };
+        String expected = name;
+        JsonBuilder builder = templatingFunctions.from(session.getNode("/home/section2/article/mgnl:apex")).add("@name").renameKey("@name", name);
+        for (char[] mask : masks) {
+            expected = expected.replace(mask[0], mask[1]);
+            builder.maskChar(mask[0], mask[1]);
+        }
+
+        // WHEN
+        String json = builder.print();
+
+        // THEN
+        assertEquals("a-b-c-d:x", expected);
+        assertThat(json, containsString("\"" + expected + "\" : "));
+    }
+
     /**
      * Lists specified properties only for sub nodes but not for the parent nodes.
      *
@@ -818,6 +905,30 @@ public class JsonBuilderTest extends RepositoryTestCase {
                 + "}", withArrayByValueRegex);
     }
 
+    /**
+     * jsonfn.from(content).childrenAsArray("foo", "bar").print()
+     *
+     * ==> nodes with multi valued property of the name are not array parents, there is no single value to match
+     */
+    @Test
+    public void testChildrenAsArrayMultiValueCandidate() throws Exception {
+        //GIVEN
+        Node node = session.getNode("/home/section2/article");
+        Node multiValued = node.addNode("multiValued", NodeTypes.Content.NAME);
+        multiValued.setProperty("foo", new String[]{"bar", "bar"});
+        multiValued.addNode("testA", NodeTypes.Content.NAME);
+        Node multiParent = node.addNode("multiParent", NodeTypes.Content.NAME);
+        multiParent.setProperty("foo", "bar");
+        multiParent.addNode("testB", NodeTypes.Content.NAME);
+
+        //WHEN
+        String json = templatingFunctions.from(node).add("@name").childrenAsArray("foo", "bar").down(3).inline().print();
+
+        //THEN
+        assertThat(json, containsString("\"multiValued\":{\"@name\":\"multiValued\",\"testA\":{\"@name\":\"testA\"}}"));
+        assertThat(json, containsString("\"multiParent\":[{\"@name\":\"testB\"}]"));
+    }
+
     @Test
     public void testInsertCustom() throws Exception {
         //GIVEN
@@ -881,6 +992,34 @@ public class JsonBuilderTest extends RepositoryTestCase {
         assertThat(json, endsWith("}"));
     }
 
+    /**
+     * jsonfn.from(content).expand("foo.", "category", "fooId").print()
+     *
+     * ==> each distinct value is searched for once, however many properties reference it
+     */
+    @Test
+    public void testMultiExpandQueryCount() throws Exception {
+        // GIVEN
+        Node node = session.getNode("/home/section2/article/mgnl:apex");
+        catNode.setProperty("fooId", "123");
+        Session catSession = catNode.getSession();
+        catSession.getRootNode().addNode("foo2name", "category").setProperty("fooId", "456");
+        catSession.save();
+        node.setProperty("foo1", "123");
+        node.setProperty("foo2", "456");
+        node.setProperty("foo3", "123");
+        node.setProperty("foo4", "456");
+        node.addNode("blah", NodeTypes.Content.NAME).setProperty("foo5", "123");
+        session.save();
+
+        // WHEN
+        String json = templatingFunctions.from(node).expand("foo.", "category", "fooId").add("name", "@name").down(1).print();
+
+        // THEN
+        assertThat(json, containsString("\"@name\" : \"foo2name\""));
+        assertEquals(2, templatingFunctions.getRenderMetrics().get(RenderMetrics.EntryPoint.FROM).getQueryCount());
+    }
+
     /**
      * Lists specified properties only for expanded nodes but not for the parent nodes.
      */
@@ -959,6 +1098,36 @@ public class JsonBuilderTest extends RepositoryTestCase {
         assertThat(json, endsWith("}"));
     }
 
+    /**
+     * jsonfn.from(content).expand("foox", "category", "fooId").print()
+     *
+     * ==> different expanded nodes are listed in order they are referenced even when their maps are alike, repeated references are listed once
+     */
+    @Test
+    public void testMultiExpandDistinctNodesOfAlikeMaps() throws Exception {
+        // GIVEN
+        Node node = session.getNode("/home/section2/article/mgnl:apex");
+        Session catSession = catNode.getSession();
+        Node first = catSession.getRootNode().addNode("sameA", "category");
+        first.setProperty("fooId", "111");
+        first.setProperty("name", "same");
+        Node second = catSession.getRootNode().addNode("sameB", "category");
+        second.setProperty("fooId", "222");
+        second.setProperty("name", "same");
+        catSession.save();
+        node.setProperty("foox", new String[]{"222", "111", "222"});
+        session.save();
+
+        // WHEN
+        String json = templatingFunctions.from(node).expand("foox", "category", "fooId").add("name", "@name").print();
+
+        // THEN
+        assertThat(json, containsString("\"foox\" : [ {"));
+        assertEquals(1, StringUtils.countMatches(json, "\"sameA\""));
+        assertEquals(1, StringUtils.countMatches(json, "\"sameB\""));
+        assertThat(json.indexOf("\"sameB\""), lessThan(json.indexOf("\"sameA\"")));
+    }
+
     @Test
     public void nodeOrderIsPreserved() throws Exception {
         //GIVEN
@@ -1092,4 +1261,591 @@ public class JsonBuilderTest extends RepositoryTestCase {
         assertThat(json, endsWith("}"));
     }
 
+    /**
+     * Streamed output is the same as the printed one.
+     */
+    @Test
+    public void testPrintToWriter() throws Exception {
+        // GIVEN
+        Node node = session.getNode("/home/section/article");
+        StringWriter writer = new StringWriter();
+
+        // WHEN
+        String json = templatingFunctions.from(node).add("name", "@name").down(3).print();
+        templatingFunctions.from(node).add("name", "@name").down(3).printTo(writer);
+
+        // THEN
+        assertThat(json, containsString("\"name\" : \"c\""));
+        assertEquals(json, writer.toString());
+    }
+
+    /**
+     * Streamed output is the same as the printed one.
+     */
+    @Test
+    public void testPrintToStream() throws Exception {
+        // GIVEN
+        Node node = session.getNode("/home/section2/article/mgnl:apex");
+        node.setProperty("escape", "that\"s it");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // WHEN
+        String json = templatingFunctions.appendFrom("[]", node).add("escape").escapeBackslash().print();
+        templatingFunctions.appendFrom("[]", node).add("escape").escapeBackslash().printTo(out);
+
+        // THEN
+        assertThat(json, containsString("\"escape\" : \"that\\\\\"s it\""));
+        assertEquals(json, out.toString("UTF-8"));
+    }
+
+    /**
+     * Frozen builder can be rendered for any node and produces same output as non frozen one.
+     */
+    @Test
+    public void testFreeze() throws Exception {
+        // GIVEN
+        FrozenJsonBuilder frozen = templatingFunctions.from(session.getNode("/home")).add("name", "@name").exclude("jcr:.*").down(3).freeze();
+
+        // WHEN
+        String section = frozen.print(session.getNode("/home/section"));
+        String article = frozen.print(session.getNode("/home/section2/article"));
+
+        // THEN
+        assertEquals(templatingFunctions.from(session.getNode("/home/section")).add("name", "@name").exclude("jcr:.*").down(3).print(), section);
+        assertEquals(templatingFunctions.from(session.getNode("/home/section2/article")).add("name", "@name").exclude("jcr:.*").down(3).print(), article);
+        assertThat(article, containsString("\"name\" : \"c\""));
+    }
+
+    /**
+     * Broken patterns are reported when freezing the builder.
+     */
+    @Test(expected = PatternSyntaxException.class)
+    public void testFreezeWithBrokenPattern() throws Exception {
+        // WHEN
+        templatingFunctions.from(session.getNode("/home")).allowOnlyNodeTypes("mgnl:(").freeze();
+    }
+
+    /**
+     * jsonfn.named("feed").from(content).print()
+     *
+     * Definitions configured in module are compiled on module start, invalid ones are skipped.
+     */
+    @Test
+    public void testNamedDefinition() throws Exception {
+        // GIVEN
+        ComponentsTestUtil.setInstance(JsonTemplatingFunctions.class, templatingFunctions);
+        JsonBuilderDefinition feed = new JsonBuilderDefinition();
+        feed.setAdd(Arrays.asList("name", "@name"));
+        feed.setExclude(Arrays.asList("jcr:.*"));
+        feed.setDown(3);
+        JsonBuilderDefinition broken = new JsonBuilderDefinition();
+        broken.setAllowOnlyNodeTypes("mgnl:(");
+        JsonfnModule module = new JsonfnModule();
+        module.getBuilders().put("feed", feed);
+        module.getBuilders().put("broken", broken);
+
+        // WHEN
+        module.start(null);
+        String json = templatingFunctions.named("feed").from(session.getNode("/home/section2/article")).print();
+
+        // THEN
+        assertEquals(templatingFunctions.from(session.getNode("/home/section2/article")).add("name", "@name").exclude("jcr:.*").down(3).print(), json);
+        assertNull("Invalid definition should not be available.", templatingFunctions.named("broken"));
+        assertEquals("{ }", templatingFunctions.named("feed").print());
+    }
+
+    /**
+     * Definitions with incomplete mappings or invalid custom json are reported when the module starts rather than failing or being ignored when rendered.
+     */
+    @Test
+    public void testNamedDefinitionBroken() throws Exception {
+        // GIVEN
+        ComponentsTestUtil.setInstance(JsonTemplatingFunctions.class, templatingFunctions);
+        JsonBuilderDefinition noKey = new JsonBuilderDefinition();
+        noKey.setRenameKey(Collections.singletonList(mapping(null, "name")));
+        JsonBuilderDefinition badJson = new JsonBuilderDefinition();
+        badJson.setInsertCustom(Collections.singletonList(mapping("mgnl:apex", "{\"broken\" : ")));
+        JsonfnModule module = new JsonfnModule();
+        module.getBuilders().put("noKey", noKey);
+        module.getBuilders().put("badJson", badJson);
+
+        // WHEN
+        module.start(null);
+
+        // THEN
+        assertNull(templatingFunctions.named("noKey"));
+        assertNull(templatingFunctions.named("badJson"));
+        try {
+            badJson.compile("badJson", templatingFunctions.newBuilder());
+            fail("Invalid custom json should be reported.");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("'badJson'"));
+            assertThat(e.getMessage(), containsString("mgnl:apex"));
+        }
+    }
+
+    private JsonBuilderDefinition.Mapping mapping(String key, String value) {
+        JsonBuilderDefinition.Mapping mapping = new JsonBuilderDefinition.Mapping();
+        mapping.setKey(key);
+        mapping.setValue(value);
+        return mapping;
+    }
+
+    /**
+     * jsonfn.from(content).add(".*").cached().print()
+     *
+     * Same configuration for same node is rendered only once.
+     */
+    @Test
+    public void testCachedOutput() throws Exception {
+        // GIVEN
+        RenderCache cache = templatingFunctions.getRenderCache();
+        String expected = templatingFunctions.from(session.getNode("/home/section")).add("name", "@name").down(2).print();
+
+        // WHEN
+        String first = templatingFunctions.from(session.getNode("/home/section")).add("name", "@name").down(2).cached().print();
+        String second = templatingFunctions.from(session.getNode("/home/section")).add("name", "@name").down(2).cached().print();
+        templatingFunctions.from(session.getNode("/home/section")).add("name").down(2).cached().print();
+
+        // THEN
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        cache.clear();
+    }
+
+    /**
+     * jsonfn.appendFrom(json, content).add("name").cached().print()
+     *
+     * ==> json appended to is part of the cache key, but only as its digest
+     */
+    @Test
+    public void testCachedOutputAppendedToJson() throws Exception {
+        // GIVEN
+        RenderCache cache = templatingFunctions.getRenderCache();
+        Node section = session.getNode("/home/section");
+        String json = "[{\"name\" : \"" + StringUtils.repeat('x', 1000) + "\"}]";
+
+        // WHEN
+        String first = templatingFunctions.appendFrom(json, section).add("@name").cached().print();
+        String second = templatingFunctions.appendFrom(json, section).add("@name").cached().print();
+        String other = templatingFunctions.appendFrom("[]", section).add("@name").cached().print();
+
+        // THEN
+        assertEquals(first, second);
+        assertThat(first, containsString(StringUtils.repeat('x', 1000)));
+        assertThat(other, not(containsString("xxx")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        cache.clear();
+    }
+
+    /**
+     * jsonfn.from(content).add("name").cached().print()
+     *
+     * Output not fitting into length limit of the cache is rendered every time.
+     */
+    @Test
+    public void testCachedOutputMaxChars() throws Exception {
+        // GIVEN
+        RenderCache cache = templatingFunctions.getRenderCache();
+        String small = templatingFunctions.from(session.getNode("/home/section")).add("name").cached().print();
+        cache.setMaxChars(small.length());
+
+        // WHEN
+        String large = templatingFunctions.from(session.getNode("/home/section")).add("name", "@name").down(2).cached().print();
+        templatingFunctions.from(session.getNode("/home/section")).add("name", "@name").down(2).cached().print();
+
+        // THEN
+        assertThat(large.length(), greaterThan(small.length()));
+        assertEquals(1, cache.getSize());
+        assertEquals(small.length(), cache.getChars());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        cache.setMaxChars(RenderCache.DEFAULT_MAX_CHARS);
+        cache.clear();
+    }
+
+    /**
+     * jsonfn.fromChildNodesOf(content).add("@name").page(token, 1).print()
+     *
+     * ==> { "items" : [ { "@name" : "section" } ], "next" : "1:section" }
+     */
+    @Test
+    public void testPage() throws Exception {
+        // GIVEN
+        String all = templatingFunctions.fromChildNodesOf(session.getNode("/home")).add("@name").inline().print();
+
+        // WHEN
+        String first = templatingFunctions.fromChildNodesOf(session.getNode("/home")).add("@name").inline().page(null, 1).print();
+        String token = StringUtils.substringBetween(first, "\"next\":\"", "\"");
+        String second = templatingFunctions.fromChildNodesOf(session.getNode("/home")).add("@name").inline().page(token, 1).print();
+        String byOffset = templatingFunctions.fromChildNodesOf(session.getNode("/home")).add("@name").inline().page(1, 1).print();
+        String last = templatingFunctions.fromChildNodesOf(session.getNode("/")).add("@name").inline().page(0, 10).print();
+
+        // THEN
+        assertThat(first, startsWith("{\"items\":[{\"@name\":"));
+        assertThat(token, startsWith("1:"));
+        String secondItem = StringUtils.substringBetween(second, "[", "]");
+        assertThat(all, startsWith("[" + StringUtils.substringBetween(first, "[", "]") + "," + secondItem));
+        assertEquals(secondItem, StringUtils.substringBetween(byOffset, "[", "]"));
+        assertThat(last, containsString("{\"@name\":\"home\"}"));
+        assertThat(last, endsWith("],\"next\":null}"));
+    }
+
+    /**
+     * jsonfn.fromChildNodesOf(content).add("@name").exportTo(out)
+     *
+     * ==> {"@name":"section"}\n{"@name":"section2"}\n...
+     */
+    @Test
+    public void testExportTo() throws Exception {
+        // GIVEN
+        String json = templatingFunctions.fromChildNodesOf(session.getNode("/home")).add("@name").inline().print();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // WHEN
+        templatingFunctions.fromChildNodesOf(session.getNode("/home")).add("@name").exportTo(out);
+
+        // THEN
+        String ndjson = out.toString("UTF-8");
+        assertThat(ndjson, endsWith("}\n"));
+        assertEquals(json, "[" + StringUtils.removeEnd(ndjson, "\n").replace("\n", ",") + "]");
+    }
+
+    /**
+     * jsonfn.from(content).add("mgnl:created.*", "title").down(3).print()
+     *
+     * ==> same as when the includes are real regular expressions, only the matching properties are read.
+     */
+    @Test
+    public void testIncludeGlobs() throws Exception {
+        // GIVEN
+        String regex = templatingFunctions.from(session.getNode("/home")).add("(mgnl:created.*)", "(title)").down(3).print();
+
+        // WHEN
+        String json = templatingFunctions.from(session.getNode("/home")).add("mgnl:created.*", "title").down(3).print();
+
+        // THEN
+        assertThat(json, containsString("\"mgnl:createdBy\""));
+        assertEquals(regex, json);
+    }
+
+    /**
+     * jsonfn.fromQuery("website", "select * from [mgnl:contentNode] where [name] = $name", 10, 0, { "name" : "bb" }).add("name", "@path").inline().print()
+     *
+     * ==> [{"name":"bb","@path":"/home/section/mgnl:apex/alias2"}]
+     */
+    @Test
+    public void testFromQuery() throws Exception {
+        // GIVEN
+        Map<String, Object> bindValues = Collections.singletonMap("name", "bb");
+
+        // WHEN
+        String json = templatingFunctions.fromQuery(RepositoryConstants.WEBSITE, "select * from [mgnl:contentNode] where [name] = $name", 10, 0, bindValues).add("name", "@path").inline().print();
+
+        // THEN
+        assertThat(json, startsWith("[{"));
+        assertThat(json, containsString("\"name\":\"bb\""));
+        assertThat(json, containsString("\"@path\":\"/home/section/mgnl:apex/alias2\""));
+        assertThat(json, endsWith("}]"));
+    }
+
+    /**
+     * jsonfn.getPropertySerializers().register(PropertyType.DATE, PropertySerializers.ISO_DATE)
+     * jsonfn.from(content).add("mgnl:created").inline().print()
+     *
+     * ==> {"mgnl:created":"2026-10-17T10:15:30.000+02:00"}
+     */
+    @Test
+    public void testPropertySerializers() throws Exception {
+        // GIVEN
+        templatingFunctions.getPropertySerializers().register(PropertyType.DATE, PropertySerializers.ISO_DATE);
+
+        // WHEN
+        String json = templatingFunctions.from(session.getNode("/home/section2/article/mgnl:apex")).add("mgnl:created").inline().print();
+
+        // THEN
+        assertTrue(json, json.matches("\\{\"mgnl:created\":\"\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}(Z|[+-]\\d{2}:\\d{2})\"\\}"));
+    }
+
+    /**
+     * new EntryableContentMap(jsonfn.from(content)).entrySet()
+     *
+     * ==> plain values of properties, same as ContentMap has them, whatever serializers are registered
+     */
+    @Test
+    public void testEntryableContentMapValues() throws Exception {
+        // GIVEN
+        Node node = session.getNode("/home/section2/article/mgnl:apex");
+        node.setProperty("count", 42L);
+        node.setProperty("tags", new String[]{"a", "b"});
+        templatingFunctions.getPropertySerializers().register(PropertyType.LONG, (value, generator) -> generator.writeString("custom"));
+
+        // WHEN
+        Map<String, Object> map = new JsonBuilder.EntryableContentMap(templatingFunctions.from(node));
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            values.put(entry.getKey(), entry.getValue());
+        }
+
+        // THEN
+        assertEquals(42L, values.get("count"));
+        assertEquals(Arrays.asList("a", "b"), values.get("tags"));
+        assertThat(new ObjectMapper().writeValueAsString(map), containsString("\"count\":42"));
+    }
+
+    /**
+     * jsonfn.appendFrom(json, [content, otherContent]).add("name").inline().print()
+     *
+     * ==> [{ ... json ... },{"name":"b"},{"name":"c"}]
+     */
+    @Test
+    public void testAppendFromAll() throws Exception {
+        // GIVEN
+        String json = "[{\"name\":\"a\"}]";
+        List<Node> nodes = Arrays.asList(session.getNode("/home/section/mgnl:apex/alias"), session.getNode("/home/section/article/mgnl:apex/alias"));
+
+        // WHEN
+        String all = templatingFunctions.appendFrom(json, nodes).add("name").inline().print();
+
+        // THEN
+        assertEquals("[{\"name\":\"a\"},{\"name\":\"b\"},{\"name\":\"c\"}]", all);
+    }
+
+    /**
+     * jsonfn.appendFrom(json, [content, otherContent]).allowOnlyNodeTypes("mgnl:contentNode").add("name").inline().print()
+     *
+     * ==> [{"name":"x"},{"name":"c"},...]
+     */
+    @Test
+    public void testAppendFromAllWithAllowOnlyNodeTypes() throws Exception {
+        // GIVEN
+        List<Node> nodes = Arrays.asList(session.getNode("/home/section2/mgnl:apex"), session.getNode("/home/section/article/mgnl:apex"));
+        StringWriter export = new StringWriter();
+        StringWriter rootExport = new StringWriter();
+
+        // WHEN
+        String json = templatingFunctions.appendFrom(null, nodes).down(1).allowOnlyNodeTypes(NodeTypes.ContentNode.NAME).add("name").inline().print();
+        templatingFunctions.appendFrom(null, nodes).down(1).allowOnlyNodeTypes(NodeTypes.ContentNode.NAME).add("name").exportTo(export);
+        templatingFunctions.appendFrom(null, nodes).add("@path").exportTo(rootExport);
+
+        // THEN
+        assertThat(json, startsWith("[{\"name\":\"x\"},{\"name\":\"c\"}"));
+        assertThat(json, containsString("{\"name\":\"dec\"}"));
+        assertEquals(json, "[" + StringUtils.removeEnd(export.toString(), "\n").replace("\n", ",") + "]");
+        assertEquals("{\"@path\":\"/home/section2/mgnl:apex\"}\n{\"@path\":\"/home/section/article/mgnl:apex\"}\n", rootExport.toString());
+    }
+
+    /**
+     * jsonfn.getRenderMetrics().get(EntryPoint.FROM_CHILD_NODES_OF).getRenderCount()
+     */
+    @Test
+    public void testRenderMetrics() throws Exception {
+        // WHEN
+        String json = templatingFunctions.fromChildNodesOf(session.getNode("/home/section/mgnl:apex")).add("name").inline().print();
+
+        // THEN
+        RenderMetrics.Stats stats = templatingFunctions.getRenderMetrics().get(RenderMetrics.EntryPoint.FROM_CHILD_NODES_OF);
+        assertEquals(1, stats.getRenderCount());
+        assertEquals(5, stats.getNodeCount());
+        assertEquals(5, stats.getPropertyCount());
+        assertEquals(json.length(), stats.getOutputSize());
+        assertEquals(0, templatingFunctions.getRenderMetrics().get(RenderMetrics.EntryPoint.FROM).getRenderCount());
+    }
+
+    /**
+     * jsonfn.fromChildNodesOf(content).expand("baz", "category").parallel().print()
+     *
+     * ==> same output as without parallel()
+     */
+    @Test
+    public void testParallel() throws Exception {
+        // GIVEN
+        Node folder = createWideFolder(300);
+        Set<Thread> renderingThreads = ConcurrentHashMap.newKeySet();
+        AtomicInteger batches = new AtomicInteger();
+        templatingFunctions.setParallelExecutor(recordingExecutor(renderingThreads, batches));
+
+        // WHEN
+        String sequential = templatingFunctions.fromChildNodesOf(folder).add("title", "@name", "@id").expand("baz", "category").print();
+        String parallel = templatingFunctions.fromChildNodesOf(folder).add("title", "@name", "@id").expand("baz", "category").parallel().print();
+
+        // THEN
+        assertEquals(sequential, parallel);
+        assertEquals(4, batches.get());
+        assertThat(renderingThreads.size(), greaterThan(1));
+        assertThat(renderingThreads, not(hasItem(Thread.currentThread())));
+        templatingFunctions.getParallelExecutor().shutdown();
+    }
+
+    /**
+     * jsonfn.fromChildNodesOf(content).parallel().print() by user not permitted to impersonate
+     *
+     * ==> same output as without parallel()
+     */
+    @Test
+    public void testParallelWithoutImpersonation() throws Exception {
+        // GIVEN
+        Node folder = createWideFolder(300);
+        Session refusingSession = new DelegateSessionWrapper(session) {
+            @Override
+            public Session impersonate(Credentials credentials) throws RepositoryException {
+                throw new LoginException("Impersonation not permitted");
+            }
+        };
+        Node refusingFolder = new DelegateNodeWrapper(folder) {
+            @Override
+            public Session getSession() {
+                return refusingSession;
+            }
+        };
+        AtomicInteger batches = new AtomicInteger();
+        templatingFunctions.setParallelExecutor(recordingExecutor(ConcurrentHashMap.newKeySet(), batches));
+
+        // WHEN
+        String sequential = templatingFunctions.fromChildNodesOf(folder).add("title", "@name").expand("baz", "category").print();
+        String parallel = templatingFunctions.fromChildNodesOf(refusingFolder).add("title", "@name").expand("baz", "category").parallel().print();
+
+        // THEN
+        assertEquals(sequential, parallel);
+        assertEquals(0, batches.get());
+        templatingFunctions.getParallelExecutor().shutdown();
+    }
+
+    /**
+     * jsonfn.fromChildNodesOf(content).parallel().print() while the module doesn't run
+     *
+     * ==> same output as without parallel()
+     */
+    @Test
+    public void testParallelWithoutExecutor() throws Exception {
+        // GIVEN
+        Node folder = createWideFolder(300);
+
+        // WHEN
+        String sequential = templatingFunctions.fromChildNodesOf(folder).add("title", "@name").expand("baz", "category").print();
+        String parallel = templatingFunctions.fromChildNodesOf(folder).add("title", "@name").expand("baz", "category").parallel().print();
+
+        // THEN
+        assertNull(templatingFunctions.getParallelExecutor());
+        assertEquals(sequential, parallel);
+    }
+
+    /**
+     * Executor of four threads, recording threads and number of batches rendered by them.
+     */
+    private ThreadPoolExecutor recordingExecutor(Set<Thread> threads, AtomicInteger batches) {
+        return new ThreadPoolExecutor(4, 4, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<>(16)) {
+            @Override
+            protected void beforeExecute(Thread thread, Runnable batch) {
+                threads.add(thread);
+                batches.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * jsonfn.fromChildNodesOf(content).expand("baz", "category").prefetch().print()
+     *
+     * ==> same output as without prefetch(), without looking up expanded nodes one by one
+     */
+    @Test
+    public void testPrefetch() throws Exception {
+        // GIVEN
+        Node folder = createWideFolder(150);
+        Context context = MgnlContext.getInstance();
+        Session lookups = spy(context.getJCRSession("category"));
+        Context countingContext = spy(context);
+        doReturn(lookups).when(countingContext).getJCRSession("category");
+        MgnlContext.setInstance(countingContext);
+
+        // WHEN
+        String json = templatingFunctions.fromChildNodesOf(folder).add("title", "name").expand("baz", "category").print();
+        verify(lookups, times(150)).getNodeByIdentifier(anyString());
+        reset(lookups);
+        String prefetched = templatingFunctions.fromChildNodesOf(folder).add("title", "name").expand("baz", "category").prefetch().print();
+
+        // THEN
+        verify(lookups, never()).getNodeByIdentifier(anyString());
+        assertThat(json, containsString("\"name\" : \"Category 149\""));
+        assertEquals(json, prefetched);
+    }
+
+    /**
+     * jsonfn.fromChildNodesOf(content).expand("baz", "category").prefetch().exportTo(out)
+     *
+     * ==> same documents as without prefetch(), also for nodes matching allowOnlyNodeTypes()
+     */
+    @Test
+    public void testExportToWithPrefetch() throws Exception {
+        // GIVEN
+        Node folder = createWideFolder(150);
+        StringWriter children = new StringWriter();
+        StringWriter prefetchedChildren = new StringWriter();
+        StringWriter allowed = new StringWriter();
+        StringWriter prefetchedAllowed = new StringWriter();
+
+        // WHEN
+        templatingFunctions.fromChildNodesOf(folder).add("title", "name").expand("baz", "category").exportTo(children);
+        templatingFunctions.fromChildNodesOf(folder).add("title", "name").expand("baz", "category").prefetch().exportTo(prefetchedChildren);
+        templatingFunctions.from(folder).add("title", "name").expand("baz", "category").down(1).allowOnlyNodeTypes(NodeTypes.ContentNode.NAME).exportTo(allowed);
+        templatingFunctions.from(folder).add("title", "name").expand("baz", "category").down(1).allowOnlyNodeTypes(NodeTypes.ContentNode.NAME).prefetch().exportTo(prefetchedAllowed);
+
+        // THEN
+        assertEquals(150, StringUtils.countMatches(children.toString(), "\n"));
+        assertThat(children.toString(), containsString("\"name\":\"Category 149\""));
+        assertEquals(children.toString(), prefetchedChildren.toString());
+        assertEquals(150, StringUtils.countMatches(allowed.toString(), "\n"));
+        assertEquals(allowed.toString(), prefetchedAllowed.toString());
+    }
+
+    /**
+     * jsonfn.from(content).expand("baz", "category").allowOnlyNodeTypes("mgnl:contentNode").prefetch().exportTo(out)
+     *
+     * ==> references of siblings written after a nested folder stay prefetched
+     */
+    @Test
+    public void testExportToWithPrefetchOfNestedNodes() throws Exception {
+        // GIVEN
+        Node folder = createWideFolder(2);
+        Node nested = folder.addNode("nested", NodeTypes.Folder.NAME).addNode("deep", NodeTypes.ContentNode.NAME);
+        nested.setProperty("baz", catNode.getIdentifier());
+        folder.orderBefore("nested", "child0");
+        session.save();
+        Context context = MgnlContext.getInstance();
+        Session lookups = spy(context.getJCRSession("category"));
+        Context countingContext = spy(context);
+        doReturn(lookups).when(countingContext).getJCRSession("category");
+        MgnlContext.setInstance(countingContext);
+        StringWriter out = new StringWriter();
+
+        // WHEN
+        templatingFunctions.from(folder).add("title", "name").expand("baz", "category").down(2).allowOnlyNodeTypes(NodeTypes.ContentNode.NAME).prefetch().exportTo(out);
+
+        // THEN
+        verify(lookups, never()).getNodeByIdentifier(anyString());
+        assertEquals(3, StringUtils.countMatches(out.toString(), "\n"));
+        assertThat(out.toString(), containsString("\"name\":\"Category 1\""));
+    }
+
+    /**
+     * Folder of given number of child nodes, each of them referencing its own category.
+     */
+    private Node createWideFolder(int width) throws RepositoryException {
+        Session catSession = catNode.getSession();
+        Node folder = session.getRootNode().addNode("wide", NodeTypes.Folder.NAME);
+        for (int i = 0; i < width; i++) {
+            Node category = catSession.getRootNode().addNode("cat" + i, "category");
+            category.setProperty("name", "Category " + i);
+            Node child = folder.addNode("child" + i, NodeTypes.ContentNode.NAME);
+            child.setProperty("title", "Child " + i);
+            child.setProperty("baz", category.getIdentifier());
+        }
+        catSession.save();
+        session.save();
+        return folder;
+    }
+
 }